@@ -1,6 +1,7 @@
 'use strict';
 let React = require('react-native');
 let bleManager = React.NativeModules.BleManager;
+let isAndroid = React.Platform.OS === 'android';
 
 class BleManager {
 
@@ -9,18 +10,38 @@ class BleManager {
      * 事件
      *
      * EVEN_DISCOVER        发现
+     * EVEN_DISCOVER_BATCH  批量发现（设置了 batchInterval 时）
+     * EVEN_DISCOVER_BEACON 扫描到Beacon
+     * EVEN_PERIPHERAL_LOST 设备丢失（淘汰、过期或开始扫描时清除）
      * EVEN_STOP_SCAN       停止扫描
+     * EVEN_SCAN_STATE      扫描状态改变
+     * EVEN_SCAN_RECOVERY   扫描失败后的恢复进度
      * EVEN_CONNECT         连接
+     * EVEN_SERVICES_CHANGED 服务结构和 retrieveServices 返回的缓存不同，或返回缓存后发现服务失败（带 error）
      * EVEN_DISCONNECT      断开连接
      * EVEN_UPDATE_STATE    状态更新
      * EVEN_UPDATE_VALUE    数据更新
+     * EVEN_UPDATE_VALUE_HANDLE 按句柄开启通知的数据更新，只带句柄
+     * EVEN_UPDATE_VALUES   合并的数据更新（开启通知时设置了 interval 或 maxPackets）
+     * EVEN_NOTIFICATIONS_AVAILABLE 缓冲中有新的通知（开启通知时设置了 buffer）
+     * EVEN_WRITE_PROGRESS  分包写数据的进度
      */
     static EVEN_DISCOVER = 'BleManagerDiscoverPeripheral';
+    static EVEN_DISCOVER_BATCH = 'BleManagerDiscoverPeripherals';
+    static EVEN_DISCOVER_BEACON = 'BleManagerDiscoverBeacon';
+    static EVEN_PERIPHERAL_LOST = 'BleManagerPeripheralLost';
     static EVEN_STOP_SCAN = 'BleManagerStopScan';
+    static EVEN_SCAN_STATE = 'BleManagerScanState';
+    static EVEN_SCAN_RECOVERY = 'BleManagerScanRecovery';
     static EVEN_CONNECT = 'BleManagerConnectPeripheral';
+    static EVEN_SERVICES_CHANGED = 'BleManagerServicesChanged';
     static EVEN_DISCONNECT = 'BleManagerDisconnectPeripheral';
     static EVEN_UPDATE_STATE = 'BleManagerDidUpdateState';
     static EVEN_UPDATE_VALUE = 'BleManagerDidUpdateValueForCharacteristic';
+    static EVEN_UPDATE_VALUE_HANDLE = 'BleManagerDidUpdateValueForHandle';
+    static EVEN_UPDATE_VALUES = 'BleManagerDidUpdateValuesForCharacteristic';
+    static EVEN_NOTIFICATIONS_AVAILABLE = 'BleManagerNotificationsAvailable';
+    static EVEN_WRITE_PROGRESS = 'BleManagerWriteProgress';
 
 
     constructor() {
@@ -51,21 +72,29 @@ class BleManager {
         });
     }
 
-    retrieveServices(peripheralId) {
+    retrieveServices(peripheralId, options) {
         return new Promise((fulfill, reject) => {
-            bleManager.retrieveServices(peripheralId, (error, peripheral) => {
+            let callback = (error, peripheral) => {
                 if (error) {
                     reject(error);
                 } else {
                     fulfill(peripheral);
                 }
-            });
+            };
+
+            //options 只在 Android 上支持
+            if (isAndroid) {
+                bleManager.retrieveServices(peripheralId, options || {}, callback);
+            } else {
+                bleManager.retrieveServices(peripheralId, callback);
+            }
         });
     }
 
     write(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize) {
         if (maxByteSize == null) {
-            maxByteSize = 20;
+            //Android 按协商后的 MTU - 3 分包
+            maxByteSize = isAndroid ? 0 : 20;
         }
         return new Promise((fulfill, reject) => {
             bleManager.write(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, (error) => {
@@ -80,25 +109,29 @@ class BleManager {
 
     writeWithoutResponse(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime) {
         if (maxByteSize == null) {
-            maxByteSize = 20;
+            //Android 按协商后的 MTU - 3 分包
+            maxByteSize = isAndroid ? 0 : 20;
         }
         if (queueSleepTime == null) {
             queueSleepTime = 10
         }
         return new Promise((fulfill, reject) => {
-            bleManager.writeWithoutResponse(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, (error) => {
+            bleManager.writeWithoutResponse(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, (error, result) => {
                 if (error) {
                     reject(error);
                 } else {
-                    fulfill();
+                    fulfill(result);
                 }
             });
         });
     }
 
-    connect(peripheralId) {
+    writeBase64(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize) {
+        if (maxByteSize == null) {
+            maxByteSize = 0;
+        }
         return new Promise((fulfill, reject) => {
-            bleManager.connect(peripheralId, (error) => {
+            bleManager.writeBase64(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, (error) => {
                 if (error) {
                     reject(error);
                 } else {
@@ -108,6 +141,43 @@ class BleManager {
         });
     }
 
+    writeWithoutResponseBase64(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime) {
+        if (maxByteSize == null) {
+            maxByteSize = 0;
+        }
+        if (queueSleepTime == null) {
+            queueSleepTime = 10
+        }
+        return new Promise((fulfill, reject) => {
+            bleManager.writeWithoutResponseBase64(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime, (error, result) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill(result);
+                }
+            });
+        });
+    }
+
+    connect(peripheralId, options) {
+        return new Promise((fulfill, reject) => {
+            let callback = (error) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill();
+                }
+            };
+
+            //options 只在 Android 上支持
+            if (isAndroid) {
+                bleManager.connect(peripheralId, options || {}, callback);
+            } else {
+                bleManager.connect(peripheralId, callback);
+            }
+        });
+    }
+
     disconnect(peripheralId) {
         return new Promise((fulfill, reject) => {
             bleManager.disconnect(peripheralId, (error) => {
@@ -120,9 +190,97 @@ class BleManager {
         });
     }
 
-    startNotification(peripheralId, serviceUUID, characteristicUUID) {
+    startNotification(peripheralId, serviceUUID, characteristicUUID, options) {
+        return new Promise((fulfill, reject) => {
+            let callback = (error) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill();
+                }
+            };
+
+            //options 只在 Android 上支持
+            if (isAndroid) {
+                bleManager.startNotification(peripheralId, serviceUUID, characteristicUUID, options || {}, callback);
+            } else {
+                bleManager.startNotification(peripheralId, serviceUUID, characteristicUUID, callback);
+            }
+        });
+    }
+
+    drainNotifications(peripheralId, serviceUUID, characteristicUUID, max) {
+        if (max == null) {
+            max = 0;
+        }
+        return new Promise((fulfill, reject) => {
+            bleManager.drainNotifications(peripheralId, serviceUUID, characteristicUUID, max, (error, result) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill(result);
+                }
+            });
+        });
+    }
+
+    resolveCharacteristic(peripheralId, serviceUUID, characteristicUUID) {
+        return new Promise((fulfill, reject) => {
+            bleManager.resolveCharacteristic(peripheralId, serviceUUID, characteristicUUID, (error, handle) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill(handle);
+                }
+            });
+        });
+    }
+
+    readHandle(handle) {
+        return new Promise((fulfill, reject) => {
+            bleManager.readHandle(handle, (error, data) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill(data);
+                }
+            });
+        });
+    }
+
+    writeHandle(handle, data, withResponse) {
+        if (withResponse == null) {
+            withResponse = true;
+        }
+        return new Promise((fulfill, reject) => {
+            bleManager.writeHandle(handle, data, withResponse, (error) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill();
+                }
+            });
+        });
+    }
+
+    notifyHandle(handle, options) {
+        if (options == null) {
+            options = {};
+        }
+        return new Promise((fulfill, reject) => {
+            bleManager.notifyHandle(handle, options, (error) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill();
+                }
+            });
+        });
+    }
+
+    stopNotifyHandle(handle) {
         return new Promise((fulfill, reject) => {
-            bleManager.startNotification(peripheralId, serviceUUID, characteristicUUID, (error) => {
+            bleManager.stopNotifyHandle(handle, (error) => {
                 if (error) {
                     reject(error);
                 } else {
@@ -263,6 +421,30 @@ class BleManager {
         });
     }
 
+    getScanStats() {
+        return new Promise((fulfill, reject) => {
+            bleManager.getScanStats((error, stats) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill(stats);
+                }
+            });
+        });
+    }
+
+    resetScanStats() {
+        return new Promise((fulfill, reject) => {
+            bleManager.resetScanStats((error) => {
+                if (error) {
+                    reject(error);
+                } else {
+                    fulfill();
+                }
+            });
+        });
+    }
+
     removePeripheral(peripheralId) {
         return new Promise((fulfill, reject) => {
             bleManager.removePeripheral(peripheralId, (error) => {
@@ -285,11 +467,11 @@ class BleManager {
 
     requestMTU(peripheralId, mtu) {
         return new Promise((fulfill, reject) => {
-          bleManager.requestMTU(peripheralId, mtu, (error) => {
+          bleManager.requestMTU(peripheralId, mtu, (error, mtu) => {
             if (error) {
               reject(error);
             } else {
-              fulfill();
+              fulfill(mtu);
             }
           });
         });
@@ -0,0 +1,343 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.util.Base64;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * 广播数据解析
+ * 直接在原始广播数据上按AD结构遍历，不复制数据，只解析需要发送的字段
+ */
+class AdvertisingParser {
+
+    //字段
+    static final int FIELD_RAW = 1;
+    static final int FIELD_FLAGS = 1 << 1;
+    static final int FIELD_LOCAL_NAME = 1 << 2;
+    static final int FIELD_SERVICE_UUIDS = 1 << 3;
+    static final int FIELD_SERVICE_DATA = 1 << 4;
+    static final int FIELD_MANUFACTURER_DATA = 1 << 5;
+    static final int FIELD_TX_POWER_LEVEL = 1 << 6;
+
+    //二进制数据的编码
+    static final int ENCODING_BASE64 = 1;
+    static final int ENCODING_BYTES = 1 << 1;
+
+    //AD类型，扫描过滤和Beacon识别共用
+    static final int AD_FLAGS = 0x01;
+    static final int AD_SERVICE_UUIDS_16_PARTIAL = 0x02;
+    static final int AD_SERVICE_UUIDS_16_COMPLETE = 0x03;
+    static final int AD_SERVICE_UUIDS_32_PARTIAL = 0x04;
+    static final int AD_SERVICE_UUIDS_32_COMPLETE = 0x05;
+    static final int AD_SERVICE_UUIDS_128_PARTIAL = 0x06;
+    static final int AD_SERVICE_UUIDS_128_COMPLETE = 0x07;
+    static final int AD_LOCAL_NAME_SHORT = 0x08;
+    static final int AD_LOCAL_NAME_COMPLETE = 0x09;
+    static final int AD_TX_POWER_LEVEL = 0x0A;
+    static final int AD_SERVICE_DATA_16 = 0x16;
+    static final int AD_SERVICE_DATA_32 = 0x20;
+    static final int AD_SERVICE_DATA_128 = 0x21;
+    static final int AD_MANUFACTURER_DATA = 0xFF;
+
+    //广播中没有发射功率
+    static final int NO_TX_POWER_LEVEL = Integer.MIN_VALUE;
+
+    //蓝牙基础UUID 0000XXXX-0000-1000-8000-00805f9b34fb 的低64位
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //默认只发送原始数据，和之前的事件格式一致
+    static final AdvertisingParser DEFAULT = new AdvertisingParser(FIELD_RAW, ENCODING_BASE64 | ENCODING_BYTES);
+
+    private final int fields;
+    private final int encodings;
+
+    AdvertisingParser(int fields, int encodings) {
+        this.fields = fields;
+        this.encodings = encodings;
+    }
+
+    /**
+     * 按扫描配置生成解析器
+     * advertisingFields: 需要发送的字段 raw/flags/localName/serviceUUIDs/serviceData/manufacturerData/txPowerLevel
+     * advertisingEncodings: 二进制数据的编码 base64/bytes
+     *
+     * @param options ReadableMap
+     * @return AdvertisingParser
+     */
+    static AdvertisingParser fromOptions(ReadableMap options) {
+        if (options == null || (!options.hasKey("advertisingFields") && !options.hasKey("advertisingEncodings"))) {
+            return DEFAULT;
+        }
+
+        int fields = DEFAULT.fields;
+        int encodings = DEFAULT.encodings;
+
+        if (options.hasKey("advertisingFields")) {
+            fields = 0;
+            ReadableArray array = options.getArray("advertisingFields");
+            for (int i = 0; i < array.size(); i++) {
+                fields |= fieldFromString(array.getString(i));
+            }
+        }
+
+        if (options.hasKey("advertisingEncodings")) {
+            encodings = 0;
+            ReadableArray array = options.getArray("advertisingEncodings");
+            for (int i = 0; i < array.size(); i++) {
+                String encoding = array.getString(i);
+                if ("base64".equals(encoding)) {
+                    encodings |= ENCODING_BASE64;
+                } else if ("bytes".equals(encoding)) {
+                    encodings |= ENCODING_BYTES;
+                }
+            }
+        }
+
+        return new AdvertisingParser(fields, encodings);
+    }
+
+    private static int fieldFromString(String field) {
+        switch (field) {
+            case "raw":
+                return FIELD_RAW;
+            case "flags":
+                return FIELD_FLAGS;
+            case "localName":
+                return FIELD_LOCAL_NAME;
+            case "serviceUUIDs":
+                return FIELD_SERVICE_UUIDS;
+            case "serviceData":
+                return FIELD_SERVICE_DATA;
+            case "manufacturerData":
+                return FIELD_MANUFACTURER_DATA;
+            case "txPowerLevel":
+                return FIELD_TX_POWER_LEVEL;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 把广播数据转换为RN对象
+     *
+     * @param record byte[] 原始广播数据
+     * @return WritableMap
+     */
+    WritableMap toWritableMap(byte[] record) {
+        WritableMap map = Arguments.createMap();
+
+        if (record == null) {
+            return map;
+        }
+
+        if ((fields & FIELD_RAW) != 0) {
+            map.putString("CDVType", "ArrayBuffer");
+            putEncoded(map, record, 0, record.length);
+        }
+
+        //只需要原始数据，不用遍历AD结构
+        if ((fields & ~FIELD_RAW) == 0) {
+            return map;
+        }
+
+        WritableArray serviceUUIDs = null;
+        WritableMap serviceData = null;
+        WritableMap manufacturerData = null;
+
+        int length;
+        for (int offset = 0; (length = structureLength(record, offset)) > 0; offset += length + 1) {
+            int type = record[offset + 1] & 0xFF;
+            int dataOffset = offset + 2;
+            int dataLength = length - 1;
+
+            switch (type) {
+                case AD_FLAGS:
+                    if ((fields & FIELD_FLAGS) != 0 && dataLength > 0) {
+                        map.putInt("flags", record[dataOffset] & 0xFF);
+                    }
+                    break;
+
+                case AD_LOCAL_NAME_SHORT:
+                case AD_LOCAL_NAME_COMPLETE:
+                    //完整名称优先
+                    if ((fields & FIELD_LOCAL_NAME) != 0 && (type == AD_LOCAL_NAME_COMPLETE || !map.hasKey("localName"))) {
+                        map.putString("localName", new String(record, dataOffset, dataLength, UTF_8));
+                    }
+                    break;
+
+                case AD_SERVICE_UUIDS_16_PARTIAL:
+                case AD_SERVICE_UUIDS_16_COMPLETE:
+                case AD_SERVICE_UUIDS_32_PARTIAL:
+                case AD_SERVICE_UUIDS_32_COMPLETE:
+                case AD_SERVICE_UUIDS_128_PARTIAL:
+                case AD_SERVICE_UUIDS_128_COMPLETE:
+                    if ((fields & FIELD_SERVICE_UUIDS) != 0) {
+                        if (serviceUUIDs == null) {
+                            serviceUUIDs = Arguments.createArray();
+                        }
+                        int uuidLength = uuidLength(type);
+                        for (int i = dataOffset; i + uuidLength <= dataOffset + dataLength; i += uuidLength) {
+                            serviceUUIDs.pushString(UUIDHelper.uuidToString(readUUID(record, i, uuidLength)));
+                        }
+                    }
+                    break;
+
+                case AD_SERVICE_DATA_16:
+                case AD_SERVICE_DATA_32:
+                case AD_SERVICE_DATA_128:
+                    if ((fields & FIELD_SERVICE_DATA) != 0) {
+                        int uuidLength = uuidLength(type);
+                        if (dataLength >= uuidLength) {
+                            if (serviceData == null) {
+                                serviceData = Arguments.createMap();
+                            }
+                            WritableMap value = Arguments.createMap();
+                            putEncoded(value, record, dataOffset + uuidLength, dataLength - uuidLength);
+                            serviceData.putMap(UUIDHelper.uuidToString(readUUID(record, dataOffset, uuidLength)), value);
+                        }
+                    }
+                    break;
+
+                case AD_MANUFACTURER_DATA:
+                    if ((fields & FIELD_MANUFACTURER_DATA) != 0 && dataLength >= 2) {
+                        if (manufacturerData == null) {
+                            manufacturerData = Arguments.createMap();
+                        }
+                        int companyId = readCompanyId(record, dataOffset);
+                        WritableMap value = Arguments.createMap();
+                        putEncoded(value, record, dataOffset + 2, dataLength - 2);
+                        manufacturerData.putMap(String.valueOf(companyId), value);
+                    }
+                    break;
+
+                case AD_TX_POWER_LEVEL:
+                    if ((fields & FIELD_TX_POWER_LEVEL) != 0 && dataLength > 0) {
+                        //有符号
+                        map.putInt("txPowerLevel", record[dataOffset]);
+                    }
+                    break;
+            }
+        }
+
+        if (serviceUUIDs != null) {
+            map.putArray("serviceUUIDs", serviceUUIDs);
+        }
+        if (serviceData != null) {
+            map.putMap("serviceData", serviceData);
+        }
+        if (manufacturerData != null) {
+            map.putMap("manufacturerData", manufacturerData);
+        }
+
+        return map;
+    }
+
+    /**
+     * 读取广播的发射功率
+     *
+     * @param record byte[] 原始广播数据
+     * @return int 没有时为 NO_TX_POWER_LEVEL
+     */
+    static int readTxPowerLevel(byte[] record) {
+        if (record == null) {
+            return NO_TX_POWER_LEVEL;
+        }
+
+        int length;
+        for (int offset = 0; (length = structureLength(record, offset)) > 0; offset += length + 1) {
+            if ((record[offset + 1] & 0xFF) == AD_TX_POWER_LEVEL && length > 1) {
+                return record[offset + 2];
+            }
+        }
+        return NO_TX_POWER_LEVEL;
+    }
+
+    /**
+     * 读取 offset 处AD结构的长度，遍历广播数据时使用
+     * 结构的第一个字节为长度，第二个字节为类型，之后的 长度 - 1 个字节为数据，下一个结构在 offset + 长度 + 1 处
+     *
+     * @param record byte[] 原始广播数据
+     * @param offset int
+     * @return int 类型和数据的长度，长度为0（有效数据结束）或结构超出数据长度时为 0，遍历应结束
+     */
+    static int structureLength(byte[] record, int offset) {
+        if (offset >= record.length) {
+            return 0;
+        }
+        int length = record[offset] & 0xFF;
+        return offset + length >= record.length ? 0 : length;
+    }
+
+    /**
+     * 按配置的编码写入二进制数据片段
+     */
+    private void putEncoded(WritableMap map, byte[] bytes, int offset, int length) {
+        if ((encodings & ENCODING_BASE64) != 0) {
+            map.putString("data", Base64.encodeToString(bytes, offset, length, Base64.NO_WRAP));
+        }
+        if ((encodings & ENCODING_BYTES) != 0) {
+            WritableArray array = Arguments.createArray();
+            for (int i = offset; i < offset + length; i++) {
+                array.pushInt(bytes[i] & 0xFF);
+            }
+            map.putArray("bytes", array);
+        }
+    }
+
+    /**
+     * 服务UUID和服务数据类型中UUID的字节数
+     */
+    static int uuidLength(int type) {
+        switch (type) {
+            case AD_SERVICE_UUIDS_16_PARTIAL:
+            case AD_SERVICE_UUIDS_16_COMPLETE:
+            case AD_SERVICE_DATA_16:
+                return 2;
+            case AD_SERVICE_UUIDS_32_PARTIAL:
+            case AD_SERVICE_UUIDS_32_COMPLETE:
+            case AD_SERVICE_DATA_32:
+                return 4;
+            default:
+                return 16;
+        }
+    }
+
+    /**
+     * 读取厂商数据开头的厂商ID，小端
+     */
+    static int readCompanyId(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * 读取小端的16/32/128位UUID
+     */
+    static UUID readUUID(byte[] bytes, int offset, int length) {
+        if (length == 16) {
+            long lsb = 0;
+            long msb = 0;
+            for (int i = 7; i >= 0; i--) {
+                lsb = (lsb << 8) | (bytes[offset + i] & 0xFF);
+            }
+            for (int i = 15; i >= 8; i--) {
+                msb = (msb << 8) | (bytes[offset + i] & 0xFF);
+            }
+            return new UUID(msb, lsb);
+        }
+
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return new UUID((value << 32) | 0x1000L, BASE_UUID_LSB);
+    }
+}
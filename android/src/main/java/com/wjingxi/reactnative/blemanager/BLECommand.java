@@ -1,35 +1,160 @@
 package com.wjingxi.reactnative.blemanager;
 
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.facebook.react.bridge.Callback;
+
 import java.util.UUID;
 
 /**
  * 蓝牙命令
+ * 每个 Peripheral 按顺序执行自己的命令，上一个命令的GATT回调到达后立即执行下一个
  */
 class BLECommand {
     // Types
     public static int READ = 10000;
     public static int REGISTER_NOTIFY = 10001;
     public static int REMOVE_NOTIFY = 10002;
-    // BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
-    // BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+    public static int WRITE = 10003;
+    public static int READ_RSSI = 10004;
+    public static int REQUEST_MTU = 10005;
+    public static int RETRIEVE_SERVICES = 10006;
 
     private UUID serviceUUID;
     private UUID characteristicUUID;
     private byte[] data;
     private int type;
+    private Callback callback;
+
+    //写数据的参数
+    // BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+    // BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+    private int writeType = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+    private int maxByteSize;
+    private int queueSleepTime;
+    //data 中有效的字节数，data 来自 pool 时可能比有效数据长
+    private int length;
+    private BufferPool pool;
 
+    //请求的MTU
+    private int mtu;
 
-    public BLECommand(UUID serviceUUID, UUID characteristicUUID, int type) {
+    //开启通知时的合并发送参数，batchInterval <= 0 为逐个发送
+    private int batchInterval;
+    private int batchSize;
+    //开启通知时的环形缓冲参数，bufferCapacity <= 0 为不缓冲
+    private int bufferCapacity;
+    private int bufferOverflow;
+    //只暂停或恢复设备的通知，不改变通知的发送方式
+    private boolean pauseResume;
+    //开启通知时的特征句柄，> 0 时通知事件带句柄
+    private int handle;
+
+    //发现服务时更新的缓存、缓存版本和已经回调给JS的缓存结构
+    private GattCache cache;
+    private String cacheVersion;
+    private String cachedLayout;
+
+    //执行中的状态，只在 Peripheral 的锁内访问
+    //正在操作的特征
+    BluetoothGattCharacteristic characteristic;
+    //下一个分包在 data 中的位置，即已发送的字节数，和每个分包的大小
+    int offset;
+    int chunkSize;
+    //协议栈繁忙时连续重试的次数
+    int busyRetries;
+    //开始发送和上次发送进度的 System.nanoTime()
+    long startTime;
+    long progressTime;
+    //超时定时
+    BleTimer.Timeout timeout;
+
+    public BLECommand(UUID serviceUUID, UUID characteristicUUID, int type, Callback callback) {
         this.serviceUUID = serviceUUID;
         this.characteristicUUID = characteristicUUID;
         this.type = type;
+        this.callback = callback;
     }
 
-    public BLECommand(UUID serviceUUID, UUID characteristicUUID, byte[] data, int type) {
+    public BLECommand(UUID serviceUUID, UUID characteristicUUID, byte[] data, int type, Callback callback) {
         this.serviceUUID = serviceUUID;
         this.characteristicUUID = characteristicUUID;
         this.data = data;
         this.type = type;
+        this.callback = callback;
+    }
+
+    /**
+     * 写数据命令
+     *
+     * @param data   byte[] 要写的数据，前 length 个字节有效
+     * @param length int
+     * @param pool   BufferPool data 所属的池，命令结束后归还，不是池中的数组时为 null
+     */
+    static BLECommand write(UUID serviceUUID, UUID characteristicUUID, byte[] data, int length, BufferPool pool, int maxByteSize, int queueSleepTime, int writeType, Callback callback) {
+        BLECommand command = new BLECommand(serviceUUID, characteristicUUID, data, WRITE, callback);
+        command.length = length;
+        command.pool = pool;
+        command.maxByteSize = maxByteSize;
+        command.queueSleepTime = queueSleepTime;
+        command.writeType = writeType;
+        return command;
+    }
+
+    /**
+     * 开启通知命令
+     *
+     * @param batchInterval int 合并发送的间隔毫秒，<= 0 为逐个发送
+     * @param batchSize      int 单个事件最多包含的通知数，<= 0 为不限制
+     * @param bufferCapacity int 环形缓冲的容量，> 0 时通知只记录在缓冲中，优先于合并发送
+     * @param bufferOverflow int 缓冲满时的处理方式，NotificationBuffer.DROP_OLDEST 等
+     * @param handle         int 特征句柄，不是按句柄开启时为 0
+     */
+    static BLECommand registerNotify(UUID serviceUUID, UUID characteristicUUID, int batchInterval, int batchSize, int bufferCapacity, int bufferOverflow, int handle, Callback callback) {
+        BLECommand command = new BLECommand(serviceUUID, characteristicUUID, REGISTER_NOTIFY, callback);
+        command.handle = handle;
+        command.batchInterval = batchInterval;
+        command.batchSize = batchSize;
+        command.bufferCapacity = bufferCapacity;
+        command.bufferOverflow = bufferOverflow;
+        return command;
+    }
+
+    /**
+     * 暂停或恢复设备的通知命令，用于环形缓冲满时的流控
+     *
+     * @param characteristic BluetoothGattCharacteristic
+     * @param pause          boolean
+     */
+    static BLECommand pauseNotify(BluetoothGattCharacteristic characteristic, boolean pause) {
+        BLECommand command = new BLECommand(characteristic.getService().getUuid(), characteristic.getUuid(), pause ? REMOVE_NOTIFY : REGISTER_NOTIFY, null);
+        command.characteristic = characteristic;
+        command.pauseResume = true;
+        return command;
+    }
+
+    /**
+     * 发现服务命令
+     *
+     * @param cache        GattCache 发现后更新的缓存，不使用缓存时为 null
+     * @param cacheVersion String
+     * @param cachedLayout String 已经回调给JS的缓存结构，未命中时为 null
+     */
+    static BLECommand retrieveServices(GattCache cache, String cacheVersion, String cachedLayout, Callback callback) {
+        BLECommand command = new BLECommand(null, null, RETRIEVE_SERVICES, callback);
+        command.cache = cache;
+        command.cacheVersion = cacheVersion;
+        command.cachedLayout = cachedLayout;
+        return command;
+    }
+
+    /**
+     * 请求MTU命令
+     */
+    static BLECommand requestMTU(int mtu, Callback callback) {
+        BLECommand command = new BLECommand(null, null, REQUEST_MTU, callback);
+        command.mtu = mtu;
+        return command;
     }
 
     public int getType() {
@@ -47,4 +172,84 @@ class BLECommand {
     public byte[] getData() {
         return data;
     }
-}
\ No newline at end of file
+
+    public Callback getCallback() {
+        return callback;
+    }
+
+    public int getWriteType() {
+        return writeType;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getMaxByteSize() {
+        return maxByteSize;
+    }
+
+    public int getQueueSleepTime() {
+        return queueSleepTime;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public int getBatchInterval() {
+        return batchInterval;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    public int getBufferOverflow() {
+        return bufferOverflow;
+    }
+
+    public boolean isPauseResume() {
+        return pauseResume;
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    public GattCache getCache() {
+        return cache;
+    }
+
+    public String getCacheVersion() {
+        return cacheVersion;
+    }
+
+    public String getCachedLayout() {
+        return cachedLayout;
+    }
+
+    /**
+     * 回调结果，命令只回调一次
+     * 回调后命令结束，数据归还到池中
+     *
+     * @param args Object...
+     */
+    void invoke(Object... args) {
+        if (pool != null) {
+            pool.release(data);
+            pool = null;
+            data = null;
+        }
+
+        Callback callback = this.callback;
+        this.callback = null;
+        if (callback != null) {
+            callback.invoke(args);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.wjingxi.reactnative.blemanager;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Beacon广播解析
+ * 直接在原始广播数据上识别 iBeacon、AltBeacon 和 Eddystone-UID/URL/TLM，
+ * 识别出的广播以 BleManagerDiscoverBeacon 事件发送，不再序列化原始广播数据
+ */
+class BeaconParser {
+
+    static final String EVENT_NAME = "BleManagerDiscoverBeacon";
+
+    //类型
+    static final int TYPE_IBEACON = 1;
+    static final int TYPE_ALTBEACON = 1 << 1;
+    static final int TYPE_EDDYSTONE = 1 << 2;
+
+    //不解析
+    static final BeaconParser NONE = new BeaconParser(0);
+
+    //iBeacon: 厂商ID 0x004C，0x02 0x15，UUID(16)，major(2)，minor(2)，1米处功率(1)
+    private static final int APPLE_COMPANY_ID = 0x004C;
+    private static final int IBEACON_LENGTH = 2 + 2 + 16 + 2 + 2 + 1;
+    //AltBeacon: 厂商ID，0xBE 0xAC，ID(20)，1米处功率(1)，保留(1)
+    private static final int ALTBEACON_LENGTH = 2 + 2 + 20 + 1 + 1;
+    //Eddystone 服务UUID 0xFEAA
+    private static final int EDDYSTONE_UUID = 0xFEAA;
+    private static final int EDDYSTONE_UID = 0x00;
+    private static final int EDDYSTONE_URL = 0x10;
+    private static final int EDDYSTONE_TLM = 0x20;
+    //Eddystone 的发射功率是0米处的功率，1米处约再衰减41dBm
+    private static final int EDDYSTONE_LOSS_AT_ONE_METER = 41;
+
+    private static final String[] URL_SCHEMES = {"http://www.", "https://www.", "http://", "https://"};
+    private static final String[] URL_EXPANSIONS = {
+            ".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+            ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"
+    };
+
+    private static final char[] HEX_ARRAY = "0123456789abcdef".toCharArray();
+
+    private final int types;
+
+    BeaconParser(int types) {
+        this.types = types;
+    }
+
+    /**
+     * 按扫描配置生成解析器
+     * beacons: 需要识别的类型 ibeacon/altbeacon/eddystone
+     *
+     * @param options ReadableMap
+     * @return BeaconParser
+     */
+    static BeaconParser fromOptions(ReadableMap options) {
+        if (options == null || !options.hasKey("beacons")) {
+            return NONE;
+        }
+
+        int types = 0;
+        ReadableArray array = options.getArray("beacons");
+        for (int i = 0; i < array.size(); i++) {
+            String type = array.getString(i);
+            if ("ibeacon".equals(type)) {
+                types |= TYPE_IBEACON;
+            } else if ("altbeacon".equals(type)) {
+                types |= TYPE_ALTBEACON;
+            } else if ("eddystone".equals(type)) {
+                types |= TYPE_EDDYSTONE;
+            }
+        }
+
+        return types == 0 ? NONE : new BeaconParser(types);
+    }
+
+    boolean isEnabled() {
+        return types != 0;
+    }
+
+    /**
+     * 识别广播中的Beacon帧
+     *
+     * @param record byte[] 原始广播数据
+     * @return Beacon 不是Beacon时为 null
+     */
+    Beacon parse(byte[] record) {
+        if (types == 0 || record == null) {
+            return null;
+        }
+
+        int length;
+        for (int offset = 0; (length = AdvertisingParser.structureLength(record, offset)) > 0; offset += length + 1) {
+            int type = record[offset + 1] & 0xFF;
+            int dataOffset = offset + 2;
+            int dataLength = length - 1;
+
+            Beacon beacon = null;
+            if (type == AdvertisingParser.AD_MANUFACTURER_DATA) {
+                beacon = parseManufacturerData(record, dataOffset, dataLength);
+            } else if (type == AdvertisingParser.AD_SERVICE_DATA_16 && (types & TYPE_EDDYSTONE) != 0 && dataLength >= 3
+                    && readUInt16LE(record, dataOffset) == EDDYSTONE_UUID) {
+                beacon = parseEddystone(record, dataOffset + 2, dataLength - 2);
+            }
+            if (beacon != null) {
+                return beacon;
+            }
+        }
+
+        return null;
+    }
+
+    private Beacon parseManufacturerData(byte[] record, int offset, int length) {
+        if (length < 4) {
+            return null;
+        }
+
+        int companyId = readUInt16LE(record, offset);
+        int code = readUInt16BE(record, offset + 2);
+
+        if ((types & TYPE_IBEACON) != 0 && companyId == APPLE_COMPANY_ID && code == 0x0215 && length >= IBEACON_LENGTH) {
+            int measuredPower = record[offset + 24];
+            Beacon beacon = new Beacon("ibeacon", measuredPower);
+            beacon.fields.put("uuid", readUUIDBE(record, offset + 4).toString());
+            beacon.fields.put("major", readUInt16BE(record, offset + 20));
+            beacon.fields.put("minor", readUInt16BE(record, offset + 22));
+            return beacon;
+        }
+
+        if ((types & TYPE_ALTBEACON) != 0 && code == 0xBEAC && length >= ALTBEACON_LENGTH) {
+            int measuredPower = record[offset + 24];
+            Beacon beacon = new Beacon("altbeacon", measuredPower);
+            beacon.fields.put("manufacturerId", companyId);
+            beacon.fields.put("uuid", readUUIDBE(record, offset + 4).toString());
+            beacon.fields.put("major", readUInt16BE(record, offset + 20));
+            beacon.fields.put("minor", readUInt16BE(record, offset + 22));
+            beacon.fields.put("reserved", record[offset + 25] & 0xFF);
+            return beacon;
+        }
+
+        return null;
+    }
+
+    private Beacon parseEddystone(byte[] record, int offset, int length) {
+        int frameType = record[offset] & 0xFF;
+
+        switch (frameType) {
+            case EDDYSTONE_UID:
+                //类型(1)，0米处功率(1)，namespace(10)，instance(6)
+                if (length >= 18) {
+                    Beacon beacon = new Beacon("eddystone_uid", record[offset + 1] - EDDYSTONE_LOSS_AT_ONE_METER);
+                    beacon.fields.put("namespace", toHex(record, offset + 2, 10));
+                    beacon.fields.put("instance", toHex(record, offset + 12, 6));
+                    return beacon;
+                }
+                break;
+
+            case EDDYSTONE_URL:
+                //类型(1)，0米处功率(1)，前缀(1)，编码后的URL
+                if (length >= 3) {
+                    int scheme = record[offset + 2] & 0xFF;
+                    if (scheme >= URL_SCHEMES.length) {
+                        return null;
+                    }
+                    StringBuilder url = new StringBuilder(URL_SCHEMES[scheme]);
+                    for (int i = offset + 3; i < offset + length; i++) {
+                        int c = record[i] & 0xFF;
+                        if (c < URL_EXPANSIONS.length) {
+                            url.append(URL_EXPANSIONS[c]);
+                        } else {
+                            url.append((char) c);
+                        }
+                    }
+
+                    Beacon beacon = new Beacon("eddystone_url", record[offset + 1] - EDDYSTONE_LOSS_AT_ONE_METER);
+                    beacon.fields.put("url", url.toString());
+                    return beacon;
+                }
+                break;
+
+            case EDDYSTONE_TLM:
+                //类型(1)，版本(1)，电压mV(2)，温度8.8定点(2)，广播次数(4)，运行时间0.1秒(4)，只支持未加密的版本0
+                if (length >= 14 && record[offset + 1] == 0) {
+                    Beacon beacon = new Beacon("eddystone_tlm", Beacon.NO_MEASURED_POWER);
+
+                    int battery = readUInt16BE(record, offset + 2);
+                    if (battery != 0) {
+                        beacon.fields.put("battery", battery);
+                    }
+                    //0x8000 表示不支持温度
+                    if (readUInt16BE(record, offset + 4) != 0x8000) {
+                        beacon.fields.put("temperature", record[offset + 4] + (record[offset + 5] & 0xFF) / 256.0);
+                    }
+                    beacon.fields.put("advCount", (double) readUInt32BE(record, offset + 6));
+                    beacon.fields.put("uptime", readUInt32BE(record, offset + 10) / 10.0);
+                    return beacon;
+                }
+                break;
+        }
+
+        return null;
+    }
+
+    private static int readUInt16LE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int readUInt16BE(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static long readUInt32BE(byte[] bytes, int offset) {
+        return ((long) readUInt16BE(bytes, offset) << 16) | readUInt16BE(bytes, offset + 2);
+    }
+
+    private static UUID readUUIDBE(byte[] bytes, int offset) {
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (bytes[offset + i] & 0xFF);
+            lsb = (lsb << 8) | (bytes[offset + 8 + i] & 0xFF);
+        }
+        return new UUID(msb, lsb);
+    }
+
+    private static String toHex(byte[] bytes, int offset, int length) {
+        char[] hexChars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int v = bytes[offset + i] & 0xFF;
+            hexChars[i * 2] = HEX_ARRAY[v >>> 4];
+            hexChars[i * 2 + 1] = HEX_ARRAY[v & 0x0F];
+        }
+        return new String(hexChars);
+    }
+
+    /**
+     * 识别出的Beacon帧
+     */
+    static final class Beacon {
+
+        //没有功率校准值（TLM帧）
+        static final int NO_MEASURED_POWER = Integer.MIN_VALUE;
+
+        //事件中的Beacon字段，值为 String、Integer 或 Double，发送时才生成RN对象
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        //1米处的RSSI，用于估算距离
+        final int measuredPower;
+
+        private Beacon(String type, int measuredPower) {
+            this.measuredPower = measuredPower;
+            fields.put("type", type);
+            if (measuredPower != NO_MEASURED_POWER) {
+                fields.put("measuredPower", measuredPower);
+            }
+        }
+
+        /**
+         * 生成事件的RN对象
+         *
+         * @return WritableMap
+         */
+        WritableMap toWritableMap() {
+            WritableMap map = Arguments.createMap();
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                Object value = field.getValue();
+                if (value instanceof Integer) {
+                    map.putInt(field.getKey(), (Integer) value);
+                } else if (value instanceof Double) {
+                    map.putDouble(field.getKey(), (Double) value);
+                } else {
+                    map.putString(field.getKey(), (String) value);
+                }
+            }
+            return map;
+        }
+    }
+}
@@ -16,9 +16,7 @@ import android.util.Log;
 import com.facebook.react.bridge.*;
 import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.UUID;
 
 import static android.app.Activity.RESULT_OK;
 import static android.os.Build.VERSION_CODES.LOLLIPOP;
@@ -47,7 +45,20 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 
     //所有扫描到的设备
     //Mac => Peripheral
-    Map<String, Peripheral> peripherals = new LinkedHashMap<>();
+    final PeripheralRegistry peripherals = new PeripheralRegistry(this);
+
+    //特征句柄表
+    final CharacteristicHandles handles = new CharacteristicHandles(peripherals);
+
+    //共用定时器
+    final BleTimer timer = new BleTimer();
+
+    //写数据的解码缓冲，写完后归还复用
+    //最大分组能容纳固件、图片等几百KB的整包传输，池中最多保留1MB
+    final BufferPool writeBuffers = new BufferPool(512 * 1024, 4, 1024 * 1024);
+
+    //GATT数据库缓存，第一次使用时创建
+    private GattCache gattCache;
 
 
     BleManager(ReactApplicationContext reactContext) {
@@ -116,6 +127,12 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
                 sendEvent("BleManagerDidUpdateState", map);
 
                 Log.d(LOG_TAG, "state: " + stringState);
+
+                //扫描器随蓝牙状态停止和恢复
+                ScanManager currentScanManager = scanManager;
+                if (currentScanManager != null) {
+                    currentScanManager.onAdapterStateChanged(state);
+                }
             }
 
         }
@@ -158,6 +175,22 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
         if (options.hasKey("forceLegacy")) {
             forceLegacy = options.getBoolean("forceLegacy");
         }
+
+        //设备列表的最大设备数和未连接设备的存活时间
+        int maxPeripherals = 0;
+        int peripheralTTL = 0;
+        if (options.hasKey("maxPeripherals")) {
+            maxPeripherals = options.getInt("maxPeripherals");
+        }
+        if (options.hasKey("peripheralTTL")) {
+            peripheralTTL = options.getInt("peripheralTTL");
+        }
+        peripherals.configure(maxPeripherals, peripheralTTL);
+        //释放之前的扫描器
+        if (scanManager != null) {
+            scanManager.release();
+        }
+
         //新建扫描器，LOLLIPOP以及以上系统版本，和以下系统版本用的包不同
         if (Build.VERSION.SDK_INT >= LOLLIPOP && !forceLegacy) {
             scanManager = new LollipopScanManager(reactContext, this);
@@ -226,18 +259,18 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
         if (!getBluetoothAdapter().isEnabled())
             return;
 
-        //没有连接的设备从所有设备中移除？
-        synchronized (this) {
-            for (Iterator<Map.Entry<String, Peripheral>> iterator = peripherals.entrySet().iterator(); iterator.hasNext(); ) {
-                Map.Entry<String, Peripheral> entry = iterator.next();
-                if (!entry.getValue().isConnected()) {
-                    iterator.remove();
-                }
-            }
+        //过滤条件有误
+        String filterError = PeripheralFilter.validate(options);
+        if (filterError != null) {
+            callback.invoke(filterError);
+            return;
         }
+
+        //没有连接的设备从所有设备中移除？
+        peripherals.removeDisconnected();
         synchronized (this) {
             if (scanManager != null)
-                scanManager.scan(serviceUUIDs, scanSeconds, options, callback);
+                scanManager.scan(serviceUUIDs, scanSeconds, allowDuplicates, options, callback);
             else
                 callback.invoke("bluetooth not init");
         }
@@ -268,43 +301,82 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
         scanManager.stopScan(callback);
     }
 
+    /**
+     * 获取扫描统计快照
+     *
+     * @param callback Callback
+     */
+    @ReactMethod
+    public void getScanStats(Callback callback) {
+        ScanManager currentScanManager = scanManager;
+        if (currentScanManager == null) {
+            callback.invoke("bluetooth not init");
+            return;
+        }
+
+        callback.invoke(null, currentScanManager.getScanStats());
+    }
+
+    /**
+     * 清零扫描统计
+     *
+     * @param callback Callback
+     */
+    @ReactMethod
+    public void resetScanStats(Callback callback) {
+        ScanManager currentScanManager = scanManager;
+        if (currentScanManager == null) {
+            callback.invoke("bluetooth not init");
+            return;
+        }
+
+        currentScanManager.resetScanStats();
+        callback.invoke();
+    }
+
     /**
      * 连接设备
      *
      * @param peripheralUUID String
+     * @param options        ReadableMap {mtu: 连接后自动请求的MTU}
      * @param callback       Callback
      */
     @ReactMethod
-    public void connect(String peripheralUUID, Callback callback) {
+    public void connect(String peripheralUUID, ReadableMap options, Callback callback) {
         Log.d(LOG_TAG, "Connect to: " + peripheralUUID);
 
         // 检查是否存在该设备的Peripheral
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(peripheralUUID);
-            if (peripheral == null) { //不存在Peripheral，则生成Peripheral
-                //peripheralUUID转换为大写
-                if (peripheralUUID != null) {
-                    peripheralUUID = peripheralUUID.toUpperCase();
-                }
+        Peripheral peripheral = peripherals.get(peripheralUUID);
+        if (peripheral == null) { //不存在Peripheral，则生成Peripheral
+            //peripheralUUID转换为大写
+            if (peripheralUUID != null) {
+                peripheralUUID = peripheralUUID.toUpperCase();
+            }
 
-                // 检查设备地址是否有效
-                if (BluetoothAdapter.checkBluetoothAddress(peripheralUUID)) {  //有效
-                    // 以给定的MAC地址去创建一个 BluetoothDevice 类实例(代表远程蓝牙实例)。
-                    // 即使该蓝牙地址不可见，也会产生一个BluetoothDevice 类实例
-                    BluetoothDevice device = bluetoothAdapter.getRemoteDevice(peripheralUUID);
-
-                    // 将BluetoothDevice整理成Peripheral，并放到扫描到的设备列表中
-                    peripheral = new Peripheral(device, reactContext);
-                    peripherals.put(peripheralUUID, peripheral);
-                } else { // 无效
-                    callback.invoke("Invalid peripheral uuid");
-                    return;
+            // 检查设备地址是否有效
+            if (BluetoothAdapter.checkBluetoothAddress(peripheralUUID)) {  //有效
+                // 以给定的MAC地址去创建一个 BluetoothDevice 类实例(代表远程蓝牙实例)。
+                // 即使该蓝牙地址不可见，也会产生一个BluetoothDevice 类实例
+                BluetoothDevice device = getBluetoothAdapter().getRemoteDevice(peripheralUUID);
+
+                // 将BluetoothDevice整理成Peripheral，并放到扫描到的设备列表中
+                // 其它线程同时添加了该设备时，使用已添加的设备
+                peripheral = new Peripheral(device, reactContext, timer);
+                Peripheral existing = peripherals.putIfAbsent(peripheralUUID, peripheral);
+                if (existing != null) {
+                    peripheral = existing;
                 }
+            } else { // 无效
+                callback.invoke("Invalid peripheral uuid");
+                return;
             }
-
-            //调用peripheral中的设备连接
-            peripheral.connect(callback, getCurrentActivity());
         }
+
+        //连接后自动协商MTU
+        int autoMtu = options != null && options.hasKey("mtu") ? options.getInt("mtu") : 0;
+
+        //调用peripheral中的设备连接
+        peripheral.connect(callback, getCurrentActivity(), autoMtu);
     }
 
     /**
@@ -317,14 +389,12 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void disconnect(String peripheralUUID, Callback callback) {
         Log.d(LOG_TAG, "Disconnect from: " + peripheralUUID);
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(peripheralUUID);
-            if (peripheral != null) {
-                peripheral.disconnect();
-                callback.invoke();
-            } else
-                callback.invoke("Peripheral not found");
-        }
+        Peripheral peripheral = peripherals.get(peripheralUUID);
+        if (peripheral != null) {
+            peripheral.disconnect();
+            callback.invoke();
+        } else
+            callback.invoke("Peripheral not found");
     }
 
     /**
@@ -333,19 +403,42 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
      * @param deviceUUID         String
      * @param serviceUUID        String
      * @param characteristicUUID String
+     * @param options            ReadableMap {interval: 合并发送的间隔毫秒, maxPackets: 单个事件最多包含的通知数}，都未设置时逐个发送
+     *                           {buffer: 环形缓冲容量, overflow: 'dropOldest' | 'dropNewest' | 'pause'}，设置了 buffer 时由 drainNotifications 取出
      * @param callback           Callback
      */
     @ReactMethod
-    public void startNotification(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
+    public void startNotification(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableMap options, Callback callback) {
         Log.d(LOG_TAG, "startNotification");
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(deviceUUID);
-            if (peripheral != null) {
-                peripheral.registerNotify(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), callback);
-            } else
-                callback.invoke("Peripheral not found");
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral != null) {
+            registerNotify(peripheral, UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), 0, options, callback);
+        } else
+            callback.invoke("Peripheral not found");
+    }
+
+    /**
+     * 按开启通知的参数注册notify
+     *
+     * @param handle int 特征句柄，不是按句柄开启时为 0
+     */
+    private void registerNotify(Peripheral peripheral, UUID serviceUUID, UUID characteristicUUID, int handle, ReadableMap options, Callback callback) {
+        int batchInterval = 0;
+        int batchSize = 0;
+        if (options != null && (options.hasKey("interval") || options.hasKey("maxPackets"))) {
+            batchInterval = options.hasKey("interval") ? options.getInt("interval") : NotificationBatcher.DEFAULT_INTERVAL;
+            batchSize = options.hasKey("maxPackets") ? options.getInt("maxPackets") : 0;
         }
+
+        int bufferCapacity = 0;
+        int bufferOverflow = NotificationBuffer.DROP_OLDEST;
+        if (options != null && options.hasKey("buffer")) {
+            bufferCapacity = options.getInt("buffer");
+            bufferOverflow = NotificationBuffer.parseOverflow(options.hasKey("overflow") ? options.getString("overflow") : null);
+        }
+
+        peripheral.registerNotify(serviceUUID, characteristicUUID, batchInterval, batchSize, bufferCapacity, bufferOverflow, handle, callback);
     }
 
     /**
@@ -360,12 +453,35 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void stopNotification(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
         Log.d(LOG_TAG, "stopNotification");
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(deviceUUID);
-            if (peripheral != null) {
-                peripheral.removeNotify(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), callback);
-            } else
-                callback.invoke("Peripheral not found");
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral != null) {
+            peripheral.removeNotify(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), callback);
+        } else
+            callback.invoke("Peripheral not found");
+    }
+
+    /**
+     * 取出开启通知时设置了 buffer 的特征中缓冲的通知
+     *
+     * @param deviceUUID         String
+     * @param serviceUUID        String
+     * @param characteristicUUID String
+     * @param max                int 最多取出的通知数，<= 0 为全部取出
+     * @param callback           Callback
+     */
+    @ReactMethod
+    public void drainNotifications(String deviceUUID, String serviceUUID, String characteristicUUID, int max, Callback callback) {
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral == null) {
+            callback.invoke("Peripheral not found", null);
+            return;
+        }
+
+        WritableMap map = peripheral.drainNotifications(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), max);
+        if (map != null) {
+            callback.invoke(null, map);
+        } else {
+            callback.invoke("Notification buffer not found", null);
         }
     }
 
@@ -383,19 +499,24 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void write(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message, Integer maxByteSize, Callback callback) {
         Log.d(LOG_TAG, "Write to: " + deviceUUID);
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(deviceUUID);
-            if (peripheral != null) {
-                byte[] decoded = new byte[message.size()];
-                for (int i = 0; i < message.size(); i++) {
-                    decoded[i] = new Integer(message.getInt(i)).byteValue();
-                }
-                Log.d(LOG_TAG, "Message(" + decoded.length + "): " + bytesToHex(decoded));
-                peripheral.write(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, maxByteSize, null, callback, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-            } else {
-                callback.invoke("Peripheral not found");
-            }
-        }
+        write(deviceUUID, serviceUUID, characteristicUUID, message, maxByteSize, null, callback, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+    }
+
+    /**
+     * 写Base64数据
+     *
+     * @param deviceUUID         String
+     * @param serviceUUID        String
+     * @param characteristicUUID String
+     * @param base64             String
+     * @param maxByteSize        Integer
+     * @param callback           Callback
+     */
+    @ReactMethod
+    public void writeBase64(String deviceUUID, String serviceUUID, String characteristicUUID, String base64, Integer maxByteSize, Callback callback) {
+        Log.d(LOG_TAG, "Write base64 to: " + deviceUUID);
+
+        write(deviceUUID, serviceUUID, characteristicUUID, base64, maxByteSize, null, callback, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
     }
 
     /**
@@ -413,19 +534,77 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void writeWithoutResponse(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message, Integer maxByteSize, Integer queueSleepTime, Callback callback) {
         Log.d(LOG_TAG, "Write without response to: " + deviceUUID);
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(deviceUUID);
-            if (peripheral != null) {
-                byte[] decoded = new byte[message.size()];
-                for (int i = 0; i < message.size(); i++) {
-                    decoded[i] = new Integer(message.getInt(i)).byteValue();
-                }
-                Log.d(LOG_TAG, "Message(" + decoded.length + "): " + bytesToHex(decoded));
-                peripheral.write(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, maxByteSize, queueSleepTime, callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-            } else {
-                callback.invoke("Peripheral not found");
-            }
+        write(deviceUUID, serviceUUID, characteristicUUID, message, maxByteSize, queueSleepTime, callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+    }
+
+    /**
+     * 无响应写Base64数据
+     *
+     * @param deviceUUID         String
+     * @param serviceUUID        String
+     * @param characteristicUUID String
+     * @param base64             String
+     * @param maxByteSize        Integer
+     * @param queueSleepTime     Integer
+     * @param callback           Callback
+     */
+    @ReactMethod
+    public void writeWithoutResponseBase64(String deviceUUID, String serviceUUID, String characteristicUUID, String base64, Integer maxByteSize, Integer queueSleepTime, Callback callback) {
+        Log.d(LOG_TAG, "Write base64 without response to: " + deviceUUID);
+
+        write(deviceUUID, serviceUUID, characteristicUUID, base64, maxByteSize, queueSleepTime, callback, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+    }
+
+    /**
+     * 把RN数组解码到池中的缓冲后写数据
+     * RN数组的每个元素都是 double，直接截断为 byte
+     */
+    private void write(String deviceUUID, String serviceUUID, String characteristicUUID, ReadableArray message, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral == null) {
+            callback.invoke("Peripheral not found");
+            return;
+        }
+
+        int length = message.size();
+        byte[] decoded = writeBuffers.acquire(length);
+        for (int i = 0; i < length; i++) {
+            decoded[i] = (byte) message.getInt(i);
         }
+        Log.d(LOG_TAG, "Message length: " + length);
+        peripheral.write(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), decoded, length, writeBuffers, maxByteSize, queueSleepTime, callback, writeType);
+    }
+
+    /**
+     * 把Base64解码到池中的缓冲后写数据
+     */
+    private void write(String deviceUUID, String serviceUUID, String characteristicUUID, String base64, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral == null) {
+            callback.invoke("Peripheral not found");
+            return;
+        }
+
+        write(peripheral, UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), base64, maxByteSize, queueSleepTime, callback, writeType);
+    }
+
+    private void write(Peripheral peripheral, UUID serviceUUID, UUID characteristicUUID, String base64, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
+        if (base64 == null) {
+            callback.invoke("Invalid base64 data");
+            return;
+        }
+
+        int length;
+        try {
+            length = Helper.base64DecodedLength(base64);
+        } catch (IllegalArgumentException e) {
+            callback.invoke("Invalid base64 data: " + e.getMessage());
+            return;
+        }
+
+        byte[] decoded = writeBuffers.acquire(length);
+        Helper.decodeBase64(base64, decoded);
+        peripheral.write(serviceUUID, characteristicUUID, decoded, length, writeBuffers, maxByteSize, queueSleepTime, callback, writeType);
     }
 
     /**
@@ -440,32 +619,150 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void read(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
         Log.d(LOG_TAG, "Read from: " + deviceUUID);
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(deviceUUID);
-            if (peripheral != null) {
-                peripheral.read(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), callback);
-            } else
-                callback.invoke("Peripheral not found", null);
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral != null) {
+            peripheral.read(UUIDHelper.uuidFromString(serviceUUID), UUIDHelper.uuidFromString(characteristicUUID), callback);
+        } else
+            callback.invoke("Peripheral not found", null);
+    }
+
+    /**
+     * 把特征解析为句柄，之后的 readHandle、writeHandle、notifyHandle 只传句柄
+     * 同一组参数总是得到同一个句柄，不要求设备已连接，设备从设备列表中移除后句柄失效
+     *
+     * @param deviceUUID         String Mac
+     * @param serviceUUID        String
+     * @param characteristicUUID String
+     * @param callback           Callback 成功时回调句柄
+     */
+    @ReactMethod
+    public void resolveCharacteristic(String deviceUUID, String serviceUUID, String characteristicUUID, Callback callback) {
+        if (!peripherals.containsKey(deviceUUID)) {
+            callback.invoke("Peripheral not found", null);
+            return;
+        }
+
+        UUID service;
+        UUID characteristic;
+        try {
+            service = UUIDHelper.uuidFromString(serviceUUID);
+            characteristic = UUIDHelper.uuidFromString(characteristicUUID);
+        } catch (IllegalArgumentException e) {
+            callback.invoke("Invalid UUID: " + e.getMessage(), null);
+            return;
         }
+
+        CharacteristicHandles.Handle handle = handles.resolve(deviceUUID, service, characteristic);
+        if (handle != null) {
+            callback.invoke(null, handle.id);
+        } else
+            callback.invoke("Too many handles", null);
+    }
+
+    /**
+     * 按句柄读数据
+     *
+     * @param handle   int
+     * @param callback Callback
+     */
+    @ReactMethod
+    public void readHandle(int handle, Callback callback) {
+        CharacteristicHandles.Handle h = handles.get(handle);
+        Peripheral peripheral = h != null ? handles.peripheral(h) : null;
+        if (peripheral != null) {
+            peripheral.read(h.serviceUUID, h.characteristicUUID, callback);
+        } else
+            callback.invoke(h != null ? "Peripheral not found" : "Invalid handle " + handle, null);
+    }
+
+    /**
+     * 按句柄写Base64数据，未指定分包大小，按 MTU - 3 分包
+     *
+     * @param handle       int
+     * @param base64       String
+     * @param withResponse boolean 是否等待设备响应
+     * @param callback     Callback
+     */
+    @ReactMethod
+    public void writeHandle(int handle, String base64, boolean withResponse, Callback callback) {
+        CharacteristicHandles.Handle h = handles.get(handle);
+        Peripheral peripheral = h != null ? handles.peripheral(h) : null;
+        if (peripheral == null) {
+            callback.invoke(h != null ? "Peripheral not found" : "Invalid handle " + handle);
+            return;
+        }
+
+        int writeType = withResponse ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        write(peripheral, h.serviceUUID, h.characteristicUUID, base64, 0, 0, callback, writeType);
+    }
+
+    /**
+     * 按句柄开启notify，逐个发送的通知为只带句柄和数据的 BleManagerDidUpdateValueForHandle 事件
+     * 合并发送和缓冲的事件中另外带有句柄
+     *
+     * @param handle   int
+     * @param options  ReadableMap 和 startNotification 相同
+     * @param callback Callback
+     */
+    @ReactMethod
+    public void notifyHandle(int handle, ReadableMap options, Callback callback) {
+        CharacteristicHandles.Handle h = handles.get(handle);
+        Peripheral peripheral = h != null ? handles.peripheral(h) : null;
+        if (peripheral != null) {
+            registerNotify(peripheral, h.serviceUUID, h.characteristicUUID, h.id, options, callback);
+        } else
+            callback.invoke(h != null ? "Peripheral not found" : "Invalid handle " + handle);
+    }
+
+    /**
+     * 按句柄失能notify
+     *
+     * @param handle   int
+     * @param callback Callback
+     */
+    @ReactMethod
+    public void stopNotifyHandle(int handle, Callback callback) {
+        CharacteristicHandles.Handle h = handles.get(handle);
+        Peripheral peripheral = h != null ? handles.peripheral(h) : null;
+        if (peripheral != null) {
+            peripheral.removeNotify(h.serviceUUID, h.characteristicUUID, callback);
+        } else
+            callback.invoke(h != null ? "Peripheral not found" : "Invalid handle " + handle);
     }
 
     /**
      * 搜索服务和特征
      *
      * @param deviceUUID String Mac
+     * @param options    ReadableMap {cache: 是否使用缓存, version: 缓存版本，如固件版本}
      * @param callback   Callback
      */
     @ReactMethod
-    public void retrieveServices(String deviceUUID, Callback callback) {
+    public void retrieveServices(String deviceUUID, ReadableMap options, Callback callback) {
         Log.d(LOG_TAG, "Retrieve services from: " + deviceUUID);
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(deviceUUID);
-            if (peripheral != null) {
-                peripheral.retrieveServices(callback);
-            } else
-                callback.invoke("Peripheral not found", null);
+        GattCache cache = null;
+        String version = null;
+        if (options != null && options.hasKey("cache") && options.getBoolean("cache")) {
+            cache = getGattCache();
+            version = options.hasKey("version") ? options.getString("version") : null;
         }
+
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral != null) {
+            peripheral.retrieveServices(callback, cache, version);
+        } else
+            callback.invoke("Peripheral not found", null);
+    }
+
+    /**
+     * 获取GATT数据库缓存，第一次使用时创建
+     */
+    private synchronized GattCache getGattCache() {
+        if (gattCache == null) {
+            gattCache = new GattCache(reactContext);
+        }
+        return gattCache;
     }
 
     /**
@@ -478,13 +775,30 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void readRSSI(String deviceUUID, Callback callback) {
         Log.d(LOG_TAG, "Read RSSI from: " + deviceUUID);
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(deviceUUID);
-            if (peripheral != null) {
-                peripheral.readRSSI(callback);
-            } else
-                callback.invoke("Peripheral not found", null);
-        }
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral != null) {
+            peripheral.readRSSI(callback);
+        } else
+            callback.invoke("Peripheral not found", null);
+    }
+
+    /**
+     * 请求MTU，成功时回调协商后的MTU
+     * 之后未指定 maxByteSize 的写数据按 MTU - 3 分包
+     *
+     * @param deviceUUID String Mac
+     * @param mtu        int
+     * @param callback   Callback
+     */
+    @ReactMethod
+    public void requestMTU(String deviceUUID, int mtu, Callback callback) {
+        Log.d(LOG_TAG, "Request MTU " + mtu + " from: " + deviceUUID);
+
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral != null) {
+            peripheral.requestMTU(mtu, callback);
+        } else
+            callback.invoke("Peripheral not found", null);
     }
 
     /**
@@ -526,16 +840,12 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void getDiscoveredPeripherals(Callback callback) {
         Log.d(LOG_TAG, "获取搜索到的设备");
 
-        synchronized (this) {
-            WritableArray map = Arguments.createArray();
-            Map<String, Peripheral> peripheralsCopy = new LinkedHashMap<>(peripherals);
-            for (Map.Entry<String, Peripheral> entry : peripheralsCopy.entrySet()) {
-                Peripheral peripheral = entry.getValue();
-                WritableMap jsonBundle = peripheral.asWritableMap();
-                map.pushMap(jsonBundle);
-            }
-            callback.invoke(null, map);
+        WritableArray map = Arguments.createArray();
+        for (Peripheral peripheral : peripherals.values()) {
+            WritableMap jsonBundle = peripheral.asWritableMap();
+            map.pushMap(jsonBundle);
         }
+        callback.invoke(null, map);
     }
 
     /**
@@ -548,28 +858,24 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void getConnectedPeripherals(ReadableArray serviceUUIDs, Callback callback) {
         Log.d(LOG_TAG, "获取已连接的设备");
 
-        synchronized (this) {
-            WritableArray map = Arguments.createArray();
-            Map<String, Peripheral> peripheralsCopy = new LinkedHashMap<>(peripherals);
-            for (Map.Entry<String, Peripheral> entry : peripheralsCopy.entrySet()) {
-                Peripheral peripheral = entry.getValue();
-                Boolean accept = false;
-
-                if (serviceUUIDs != null && serviceUUIDs.size() > 0) {
-                    for (int i = 0; i < serviceUUIDs.size(); i++) {
-                        accept = peripheral.hasService(UUIDHelper.uuidFromString(serviceUUIDs.getString(i)));
-                    }
-                } else {
-                    accept = true;
-                }
+        WritableArray map = Arguments.createArray();
+        for (Peripheral peripheral : peripherals.values()) {
+            Boolean accept = false;
 
-                if (peripheral.isConnected() && accept) {
-                    WritableMap jsonBundle = peripheral.asWritableMap();
-                    map.pushMap(jsonBundle);
+            if (serviceUUIDs != null && serviceUUIDs.size() > 0) {
+                for (int i = 0; i < serviceUUIDs.size(); i++) {
+                    accept = peripheral.hasService(UUIDHelper.uuidFromString(serviceUUIDs.getString(i)));
                 }
+            } else {
+                accept = true;
+            }
+
+            if (peripheral.isConnected() && accept) {
+                WritableMap jsonBundle = peripheral.asConnectedWritableMap();
+                map.pushMap(jsonBundle);
             }
-            callback.invoke(null, map);
         }
+        callback.invoke(null, map);
     }
 
     /**
@@ -582,17 +888,15 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
     public void removePeripheral(String deviceUUID, Callback callback) {
         Log.d(LOG_TAG, "Removing from list: " + deviceUUID);
 
-        synchronized (this) {
-            Peripheral peripheral = peripherals.get(deviceUUID);
-            if (peripheral != null) {
-                if (peripheral.isConnected()) {
-                    callback.invoke("Peripheral can not be removed while connected");
-                } else {
-                    peripherals.remove(deviceUUID);
-                }
-            } else
-                callback.invoke("Peripheral not found");
-        }
+        Peripheral peripheral = peripherals.get(deviceUUID);
+        if (peripheral != null) {
+            if (peripheral.isConnected()) {
+                callback.invoke("Peripheral can not be removed while connected");
+            } else {
+                peripherals.remove(deviceUUID, peripheral);
+            }
+        } else
+            callback.invoke("Peripheral not found");
     }
 
     //字节数组转16进制字符串
@@ -637,4 +941,15 @@ class BleManager extends ReactContextBaseJavaModule implements ActivityEventList
 
     }
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+
+        if (scanManager != null) {
+            scanManager.release();
+            scanManager = null;
+        }
+        timer.shutdown();
+    }
+
 }
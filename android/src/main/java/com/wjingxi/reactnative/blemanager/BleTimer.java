@@ -0,0 +1,133 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.os.Build;
+import android.os.Handler;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模块共用的定时器
+ * 扫描超时、操作超时、设备过期、重试等定时任务都由同一个线程调度，不再为每个定时任务新建线程
+ * 定时任务只负责计时，耗时的工作应通过 Handler 交给对应的线程执行
+ */
+class BleTimer {
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    BleTimer() {
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BleManagerTimer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        //取消的任务立即移出队列，频繁开始停止扫描时不会堆积
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            executor.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    /**
+     * 延迟执行任务，任务在定时器线程中执行
+     *
+     * @param task  Runnable
+     * @param delay long 毫秒
+     * @return Timeout
+     */
+    Timeout schedule(Runnable task, long delay) {
+        return schedule(task, delay, null);
+    }
+
+    /**
+     * 延迟执行任务，任务交给 handler 所在的线程执行
+     * 在该线程中取消后，任务保证不会再执行
+     *
+     * @param task    Runnable
+     * @param delay   long 毫秒
+     * @param handler Handler 为 null 时在定时器线程中执行
+     * @return Timeout
+     */
+    Timeout schedule(Runnable task, long delay, Handler handler) {
+        Timeout timeout = new Timeout(task, handler);
+        timeout.future = executor.schedule(timeout, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        return timeout;
+    }
+
+    /**
+     * 取消任务，timeout 可以为 null
+     *
+     * @param timeout Timeout
+     */
+    static void cancel(Timeout timeout) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 停止定时器，未执行的任务都不再执行
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 已安排的定时任务
+     */
+    static final class Timeout implements Runnable {
+
+        private final Runnable task;
+        private final Handler handler;
+        private volatile boolean cancelled;
+        private volatile ScheduledFuture<?> future;
+
+        private final Runnable runOnHandler = new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    task.run();
+                }
+            }
+        };
+
+        private Timeout(Runnable task, Handler handler) {
+            this.task = task;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+
+            if (handler != null) {
+                handler.post(runOnHandler);
+            } else {
+                task.run();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+
+            ScheduledFuture<?> future = this.future;
+            if (future != null) {
+                future.cancel(false);
+            }
+            if (handler != null) {
+                handler.removeCallbacks(runOnHandler);
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.wjingxi.reactnative.blemanager;
+
+import java.util.ArrayDeque;
+
+/**
+ * 字节数组池
+ * 写数据的解码缓冲在命令结束后归还，之后的写数据直接复用，避免每次写数据都分配新的数组
+ * 数组按2的幂分组，取出的数组可能比需要的长，使用方需要自己记录有效长度
+ */
+class BufferPool {
+
+    //最小的数组长度
+    private static final int MIN_SHIFT = 6;
+
+    //超过该长度的数组不入池
+    private final int maxSize;
+    //每种长度最多保留的数组数
+    private final int maxPerSize;
+    //池中保留的数组的总字节数上限，避免大数组长期占用内存
+    private final int maxRetained;
+    private int retained;
+    private final ArrayDeque<byte[]>[] buckets;
+
+    @SuppressWarnings("unchecked")
+    BufferPool(int maxSize, int maxPerSize, int maxRetained) {
+        this.maxSize = maxSize;
+        this.maxPerSize = maxPerSize;
+        this.maxRetained = maxRetained;
+        this.buckets = new ArrayDeque[bucket(maxSize) + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 取出一个长度不小于 size 的数组
+     *
+     * @param size int
+     * @return byte[]
+     */
+    byte[] acquire(int size) {
+        if (size > maxSize) {
+            return new byte[size];
+        }
+
+        int bucket = bucket(size);
+        synchronized (this) {
+            byte[] buffer = buckets[bucket].poll();
+            if (buffer != null) {
+                retained -= buffer.length;
+                return buffer;
+            }
+        }
+        return new byte[1 << (bucket + MIN_SHIFT)];
+    }
+
+    /**
+     * 归还数组，不是由该池分配的长度直接丢弃
+     *
+     * @param buffer byte[]
+     */
+    void release(byte[] buffer) {
+        if (buffer == null || buffer.length > maxSize) {
+            return;
+        }
+
+        int bucket = bucket(buffer.length);
+        if (buffer.length != 1 << (bucket + MIN_SHIFT)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (buckets[bucket].size() < maxPerSize && retained + buffer.length <= maxRetained) {
+                buckets[bucket].push(buffer);
+                retained += buffer.length;
+            }
+        }
+    }
+
+    /**
+     * 能容纳 size 的最小分组
+     */
+    private static int bucket(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(0, shift - MIN_SHIFT);
+    }
+}
@@ -0,0 +1,170 @@
+package com.wjingxi.reactnative.blemanager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 特征句柄表
+ * JS调用 resolveCharacteristic 把（设备，服务，特征）解析为一个小整数句柄，之后的读写和通知只传句柄
+ * 同一组参数总是得到同一个句柄，断开重连后仍然有效；设备从设备列表中移除（removePeripheral、淘汰或过期）时句柄随之失效
+ * 开始扫描时清除未连接设备不使句柄失效，设备再次扫描到后句柄继续可用
+ * Mac 统一按大写保存，和设备列表一致
+ * 句柄只保存解析好的UUID和设备对象，不保存特征对象，特征仍然在执行命令时由特征索引查找
+ * 按句柄查找不加锁，只有解析和移除时加锁
+ * 句柄的低16位为槽位，高位为槽位的代数，槽位复用后旧的句柄不会指向新的特征
+ */
+class CharacteristicHandles {
+
+    private static final int SLOT_BITS = 16;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    //最多同时存在的句柄数
+    private static final int MAX_HANDLES = SLOT_MASK;
+    //代数的上限，保证句柄为正数
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+
+    private final PeripheralRegistry peripherals;
+
+    //以下只在锁内访问
+    //Mac + 服务UUID + 特征UUID => 句柄
+    private final Map<String, Handle> handlesByKey = new HashMap<>();
+    //Mac => 该设备的所有句柄，移除设备时不用遍历所有句柄
+    private final Map<String, List<Handle>> handlesByAddress = new HashMap<>();
+    //空闲的槽位和每个槽位的代数
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private int[] generations = new int[16];
+    private int count;
+
+    //槽位 => Handle，修改后重新赋值，按句柄查找时读取
+    private volatile Handle[] handles = new Handle[16];
+
+    CharacteristicHandles(PeripheralRegistry peripherals) {
+        this.peripherals = peripherals;
+    }
+
+    /**
+     * 解析句柄，已解析过的返回原来的句柄
+     *
+     * @param address            String Mac
+     * @param serviceUUID        UUID
+     * @param characteristicUUID UUID
+     * @return Handle 句柄数已达上限时为 null
+     */
+    synchronized Handle resolve(String address, UUID serviceUUID, UUID characteristicUUID) {
+        address = address.toUpperCase(Locale.US);
+        String key = key(address, serviceUUID, characteristicUUID);
+        Handle handle = handlesByKey.get(key);
+        if (handle != null) {
+            return handle;
+        }
+
+        Handle[] handles = this.handles;
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.poll();
+        } else if (count < MAX_HANDLES) {
+            slot = count++;
+            if (slot == handles.length) {
+                handles = Arrays.copyOf(handles, Math.min(slot * 2, MAX_HANDLES));
+                generations = Arrays.copyOf(generations, handles.length);
+            }
+        } else {
+            return null;
+        }
+
+        handle = new Handle((generations[slot] << SLOT_BITS) | (slot + 1), address, serviceUUID, characteristicUUID);
+        handles[slot] = handle;
+        this.handles = handles;
+        handlesByKey.put(key, handle);
+
+        List<Handle> addressHandles = handlesByAddress.get(address);
+        if (addressHandles == null) {
+            addressHandles = new ArrayList<>();
+            handlesByAddress.put(address, addressHandles);
+        }
+        addressHandles.add(handle);
+        return handle;
+    }
+
+    /**
+     * 按句柄查找
+     *
+     * @param id int
+     * @return Handle 句柄无效或已失效时为 null
+     */
+    Handle get(int id) {
+        Handle[] handles = this.handles;
+        int slot = (id & SLOT_MASK) - 1;
+        if (slot < 0 || slot >= handles.length) {
+            return null;
+        }
+        Handle handle = handles[slot];
+        return handle != null && handle.id == id ? handle : null;
+    }
+
+    /**
+     * 设备从设备列表中移除时，移除该设备的所有句柄
+     *
+     * @param address String Mac
+     */
+    synchronized void remove(String address) {
+        List<Handle> addressHandles = handlesByAddress.remove(address.toUpperCase(Locale.US));
+        if (addressHandles == null) {
+            return;
+        }
+
+        Handle[] handles = this.handles;
+        for (Handle handle : addressHandles) {
+            handlesByKey.remove(key(handle.address, handle.serviceUUID, handle.characteristicUUID));
+            int slot = (handle.id & SLOT_MASK) - 1;
+            handles[slot] = null;
+            generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+            freeSlots.push(slot);
+        }
+        this.handles = handles;
+    }
+
+    /**
+     * 句柄对应的设备
+     * 通常直接使用解析时的设备对象，设备未连接时重新查找，设备对象可能已被替换
+     *
+     * @param handle Handle
+     * @return Peripheral 设备不在设备列表中时为 null
+     */
+    Peripheral peripheral(Handle handle) {
+        Peripheral peripheral = handle.peripheral;
+        if (peripheral != null && peripheral.isConnected()) {
+            return peripheral;
+        }
+
+        peripheral = peripherals.get(handle.address);
+        handle.peripheral = peripheral;
+        return peripheral;
+    }
+
+    private static String key(String address, UUID serviceUUID, UUID characteristicUUID) {
+        return address + "/" + serviceUUID + "/" + characteristicUUID;
+    }
+
+    static final class Handle {
+        final int id;
+        final String address;
+        final UUID serviceUUID;
+        final UUID characteristicUUID;
+
+        //最近一次使用的设备对象
+        volatile Peripheral peripheral;
+
+        Handle(int id, String address, UUID serviceUUID, UUID characteristicUUID) {
+            this.id = id;
+            this.address = address;
+            this.serviceUUID = serviceUUID;
+            this.characteristicUUID = characteristicUUID;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 特征索引
+ * 发现服务后一次性按（服务，特征，需要的属性）建立，读写和开启通知时直接查表，不再逐个比较特征
+ * 同一服务中有多个相同UUID的特征时（instanceId 不同），按原来的规则预先选好：优先具有需要的属性的第一个特征，没有时使用该UUID的第一个特征
+ * 相同UUID的服务只索引第一个，和 BluetoothGatt.getService 一致
+ * 建立后不再修改，断开连接或服务变化时整个丢弃
+ */
+class CharacteristicIndex {
+
+    private static final String LOG_TAG = "CharacteristicIndex";
+
+    static final CharacteristicIndex EMPTY = new CharacteristicIndex(Collections.<UUID, Map<UUID, Entry>>emptyMap());
+
+    //服务UUID => 特征UUID => Entry
+    private final Map<UUID, Map<UUID, Entry>> services;
+
+    private CharacteristicIndex(Map<UUID, Map<UUID, Entry>> services) {
+        this.services = services;
+    }
+
+    /**
+     * 由发现的服务建立索引
+     *
+     * @param gattServices List<BluetoothGattService>
+     * @return CharacteristicIndex
+     */
+    static CharacteristicIndex build(List<BluetoothGattService> gattServices) {
+        Map<UUID, Map<UUID, Entry>> services = new HashMap<>();
+
+        for (BluetoothGattService service : gattServices) {
+            if (services.containsKey(service.getUuid())) {
+                continue;
+            }
+
+            Map<UUID, Entry> characteristics = new HashMap<>();
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                UUID uuid = characteristic.getUuid();
+                if (characteristics.containsKey(uuid)) {
+                    continue;
+                }
+
+                Entry entry = new Entry();
+                entry.readable = findReadableCharacteristic(service, uuid);
+                entry.writable = findWritableCharacteristic(service, uuid, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                entry.writableWithoutResponse = findWritableCharacteristic(service, uuid, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+                entry.notifiable = findNotifyCharacteristic(service, uuid);
+                characteristics.put(uuid, entry);
+            }
+            services.put(service.getUuid(), characteristics);
+        }
+
+        return new CharacteristicIndex(services);
+    }
+
+    private Entry entry(UUID serviceUUID, UUID characteristicUUID) {
+        Map<UUID, Entry> characteristics = services.get(serviceUUID);
+        return characteristics != null ? characteristics.get(characteristicUUID) : null;
+    }
+
+    BluetoothGattCharacteristic readable(UUID serviceUUID, UUID characteristicUUID) {
+        Entry entry = entry(serviceUUID, characteristicUUID);
+        return entry != null ? entry.readable : null;
+    }
+
+    BluetoothGattCharacteristic writable(UUID serviceUUID, UUID characteristicUUID, int writeType) {
+        Entry entry = entry(serviceUUID, characteristicUUID);
+        if (entry == null) {
+            return null;
+        }
+        return writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE ? entry.writableWithoutResponse : entry.writable;
+    }
+
+    BluetoothGattCharacteristic notifiable(UUID serviceUUID, UUID characteristicUUID) {
+        Entry entry = entry(serviceUUID, characteristicUUID);
+        return entry != null ? entry.notifiable : null;
+    }
+
+    /**
+     * 一个服务中一个特征UUID按各种操作选好的特征
+     */
+    private static final class Entry {
+        BluetoothGattCharacteristic readable;
+        BluetoothGattCharacteristic writable;
+        BluetoothGattCharacteristic writableWithoutResponse;
+        BluetoothGattCharacteristic notifiable;
+    }
+
+    // Some peripherals re-use UUIDs for multiple characteristics so we need to check the properties
+    // and UUID of all characteristics instead of using service.getCharacteristic(characteristicUUID)
+    private static BluetoothGattCharacteristic findReadableCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
+        BluetoothGattCharacteristic characteristic = null;
+
+        if (service != null) {
+            int read = BluetoothGattCharacteristic.PROPERTY_READ;
+
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            for (BluetoothGattCharacteristic c : characteristics) {
+                if ((c.getProperties() & read) != 0 && characteristicUUID.equals(c.getUuid())) {
+                    characteristic = c;
+                    break;
+                }
+            }
+
+            // As a last resort, try and find ANY characteristic with this UUID, even if it doesn't have the correct properties
+            if (characteristic == null) {
+                characteristic = service.getCharacteristic(characteristicUUID);
+            }
+        }
+
+
+        return characteristic;
+    }
+
+    // Some peripherals re-use UUIDs for multiple characteristics so we need to check the properties
+    // and UUID of all characteristics instead of using service.getCharacteristic(characteristicUUID)
+    private static BluetoothGattCharacteristic findWritableCharacteristic(BluetoothGattService service, UUID characteristicUUID, int writeType) {
+        try {
+            BluetoothGattCharacteristic characteristic = null;
+
+            // get write property
+            int writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE;
+            if (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
+                writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE;
+            }
+
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            for (BluetoothGattCharacteristic c : characteristics) {
+                if ((c.getProperties() & writeProperty) != 0 && characteristicUUID.equals(c.getUuid())) {
+                    characteristic = c;
+                    break;
+                }
+            }
+
+            // As a last resort, try and find ANY characteristic with this UUID, even if it doesn't have the correct properties
+            if (characteristic == null) {
+                characteristic = service.getCharacteristic(characteristicUUID);
+            }
+
+            return characteristic;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Error on findWritableCharacteristic", e);
+            return null;
+        }
+    }
+
+    // Some devices reuse UUIDs across characteristics, so we can't use service.getCharacteristic(characteristicUUID)
+    // instead check the UUID and properties for each characteristic in the service until we find the best match
+    // This function prefers Notify over Indicate
+    private static BluetoothGattCharacteristic findNotifyCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
+        BluetoothGattCharacteristic characteristic = null;
+
+        try {
+            // Check for Notify first
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            for (BluetoothGattCharacteristic c : characteristics) {
+                if ((c.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0 && characteristicUUID.equals(c.getUuid())) {
+                    characteristic = c;
+                    break;
+                }
+            }
+
+            if (characteristic != null) return characteristic;
+
+            // If there wasn't Notify Characteristic, check for Indicate
+            for (BluetoothGattCharacteristic c : characteristics) {
+                if ((c.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0 && characteristicUUID.equals(c.getUuid())) {
+                    characteristic = c;
+                    break;
+                }
+            }
+
+            // As a last resort, try and find ANY characteristic with this UUID, even if it doesn't have the correct properties
+            if (characteristic == null) {
+                characteristic = service.getCharacteristic(characteristicUUID);
+            }
+
+            return characteristic;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Errore su caratteristica " + characteristicUUID, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 扫描结果合并发送
+ * 按Mac只保留设备的最新状态，每隔 interval 毫秒（或积累到 maxSize 个设备）发送一次 BleManagerDiscoverPeripherals 事件
+ */
+class DiscoveryBatcher {
+
+    static final String EVENT_NAME = "BleManagerDiscoverPeripherals";
+
+    private final BleManager bleManager;
+    private final ScanStats scanStats;
+    private final Handler handler;
+
+    //等待发送的设备
+    //Mac => Peripheral
+    private final Map<String, Peripheral> pending = new LinkedHashMap<>();
+
+    //发送间隔，<= 0 为不合并
+    private int interval;
+    //单个事件最多包含的设备数，<= 0 为不限制
+    private int maxSize;
+    //是否已经安排了下一次发送
+    private boolean scheduled;
+    //广播数据的发送格式
+    private AdvertisingParser advertisingParser = AdvertisingParser.DEFAULT;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    DiscoveryBatcher(BleManager bleManager, ScanStats scanStats, Looper looper) {
+        this.bleManager = bleManager;
+        this.scanStats = scanStats;
+        this.handler = new Handler(looper);
+    }
+
+    /**
+     * 设置合并参数
+     *
+     * @param interval int 发送间隔毫秒
+     * @param maxSize  int 单个事件最多包含的设备数
+     */
+    synchronized void configure(int interval, int maxSize) {
+        this.interval = interval;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 设置广播数据的发送格式
+     *
+     * @param advertisingParser AdvertisingParser
+     */
+    synchronized void setAdvertisingParser(AdvertisingParser advertisingParser) {
+        this.advertisingParser = advertisingParser;
+    }
+
+    synchronized boolean isEnabled() {
+        return interval > 0;
+    }
+
+    synchronized int pendingSize() {
+        return pending.size();
+    }
+
+    /**
+     * 加入等待发送的设备，同一设备只保留最新状态
+     *
+     * @param peripheral Peripheral
+     */
+    void add(Peripheral peripheral) {
+        boolean flushNow;
+
+        synchronized (this) {
+            pending.put(peripheral.getDevice().getAddress(), peripheral);
+
+            flushNow = maxSize > 0 && pending.size() >= maxSize;
+            if (!flushNow && !scheduled) {
+                scheduled = true;
+                handler.postDelayed(flushRunnable, interval);
+            }
+        }
+
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * 批量加入等待发送的设备
+     *
+     * @param peripherals Collection<Peripheral>
+     */
+    void addAll(Collection<Peripheral> peripherals) {
+        for (Peripheral peripheral : peripherals) {
+            add(peripheral);
+        }
+    }
+
+    /**
+     * 立即发送所有等待中的设备
+     */
+    void flush() {
+        List<Peripheral> peripherals;
+
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            scheduled = false;
+
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            peripherals = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+
+        send(peripherals);
+    }
+
+    /**
+     * 不经过合并，直接以一个事件发送给定的设备
+     *
+     * @param peripherals Collection<Peripheral>
+     */
+    void send(Collection<Peripheral> peripherals) {
+        AdvertisingParser parser;
+        synchronized (this) {
+            parser = advertisingParser;
+        }
+
+        WritableArray array = Arguments.createArray();
+        for (Peripheral peripheral : peripherals) {
+            array.pushMap(peripheral.asWritableMap(parser));
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putArray("peripherals", array);
+        bleManager.sendEvent(EVENT_NAME, map);
+
+        for (Peripheral peripheral : peripherals) {
+            scanStats.onEmitted(peripheral.getReceivedAt());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * GATT数据库缓存
+ * 按Mac保存发现的服务、特征和描述符的结构（不含描述符的值），和 retrieveServices 返回的格式一致
+ * 缓存带有JS指定的版本（如固件版本），版本不同时视为未命中；设备的服务变化时删除
+ * 保存在 SharedPreferences 中，读取在内存中完成，写入异步
+ */
+class GattCache {
+
+    private static final String LOG_TAG = "GattCache";
+    private static final String PREFS_NAME = "BleManagerGattCache";
+
+    private final SharedPreferences preferences;
+
+    GattCache(Context context) {
+        this.preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 获取缓存的结构
+     *
+     * @param address String Mac
+     * @param version String 版本，可以为 null
+     * @return String 结构的JSON，未命中时为 null
+     */
+    String get(String address, String version) {
+        String record = preferences.getString(address, null);
+        if (record == null) {
+            return null;
+        }
+
+        try {
+            JSONObject object = new JSONObject(record);
+            if (!object.optString("version").equals(version != null ? version : "")) {
+                return null;
+            }
+            return object.getString("layout");
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "缓存格式错误，Mac: " + address, e);
+            return null;
+        }
+    }
+
+    void put(String address, String version, String layout) {
+        try {
+            JSONObject object = new JSONObject();
+            object.put("version", version != null ? version : "");
+            object.put("layout", layout);
+            preferences.edit().putString(address, object.toString()).apply();
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "保存缓存失败，Mac: " + address, e);
+        }
+    }
+
+    void remove(String address) {
+        preferences.edit().remove(address).apply();
+    }
+
+    /**
+     * 生成服务结构的JSON，属性和权限保存为原始的位掩码
+     *
+     * @param services List<BluetoothGattService>
+     * @return String
+     */
+    static String describe(List<BluetoothGattService> services) {
+        try {
+            JSONArray servicesArray = new JSONArray();
+            JSONArray characteristicsArray = new JSONArray();
+
+            for (BluetoothGattService service : services) {
+                String serviceUUID = UUIDHelper.uuidToString(service.getUuid());
+                servicesArray.put(new JSONObject().put("uuid", serviceUUID));
+
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    JSONObject characteristicObject = new JSONObject();
+                    characteristicObject.put("service", serviceUUID);
+                    characteristicObject.put("characteristic", UUIDHelper.uuidToString(characteristic.getUuid()));
+                    characteristicObject.put("properties", characteristic.getProperties());
+                    characteristicObject.put("permissions", characteristic.getPermissions());
+
+                    JSONArray descriptorsArray = new JSONArray();
+                    for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                        JSONObject descriptorObject = new JSONObject();
+                        descriptorObject.put("uuid", UUIDHelper.uuidToString(descriptor.getUuid()));
+                        descriptorObject.put("permissions", descriptor.getPermissions());
+                        descriptorsArray.put(descriptorObject);
+                    }
+                    characteristicObject.put("descriptors", descriptorsArray);
+                    characteristicsArray.put(characteristicObject);
+                }
+            }
+
+            return new JSONObject()
+                    .put("services", servicesArray)
+                    .put("characteristics", characteristicsArray)
+                    .toString();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 把缓存的结构按 retrieveServices 的格式写入 map
+     *
+     * @param map    WritableMap
+     * @param layout String
+     * @return boolean 结构的格式是否正确
+     */
+    static boolean putLayout(WritableMap map, String layout) {
+        try {
+            JSONObject object = new JSONObject(layout);
+
+            WritableArray servicesArray = Arguments.createArray();
+            JSONArray services = object.getJSONArray("services");
+            for (int i = 0; i < services.length(); i++) {
+                WritableMap serviceMap = Arguments.createMap();
+                serviceMap.putString("uuid", services.getJSONObject(i).getString("uuid"));
+                servicesArray.pushMap(serviceMap);
+            }
+
+            WritableArray characteristicsArray = Arguments.createArray();
+            JSONArray characteristics = object.getJSONArray("characteristics");
+            for (int i = 0; i < characteristics.length(); i++) {
+                JSONObject characteristic = characteristics.getJSONObject(i);
+
+                WritableMap characteristicsMap = Arguments.createMap();
+                characteristicsMap.putString("service", characteristic.getString("service"));
+                characteristicsMap.putString("characteristic", characteristic.getString("characteristic"));
+                characteristicsMap.putMap("properties", Helper.decodeProperties(characteristic.getInt("properties")));
+
+                int permissions = characteristic.getInt("permissions");
+                if (permissions > 0) {
+                    characteristicsMap.putMap("permissions", Helper.decodeCharacteristicPermissions(permissions));
+                }
+
+                WritableArray descriptorsArray = Arguments.createArray();
+                JSONArray descriptors = characteristic.getJSONArray("descriptors");
+                for (int j = 0; j < descriptors.length(); j++) {
+                    JSONObject descriptor = descriptors.getJSONObject(j);
+
+                    WritableMap descriptorMap = Arguments.createMap();
+                    descriptorMap.putString("uuid", descriptor.getString("uuid"));
+                    descriptorMap.putString("value", null);
+
+                    int descriptorPermissions = descriptor.getInt("permissions");
+                    if (descriptorPermissions > 0) {
+                        descriptorMap.putMap("permissions", Helper.decodeDescriptorPermissions(descriptorPermissions));
+                    }
+                    descriptorsArray.pushMap(descriptorMap);
+                }
+                if (descriptorsArray.size() > 0) {
+                    characteristicsMap.putArray("descriptors", descriptorsArray);
+                }
+                characteristicsArray.pushMap(characteristicsMap);
+            }
+
+            map.putArray("services", servicesArray);
+            map.putArray("characteristics", characteristicsArray);
+            return true;
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "缓存格式错误", e);
+            return false;
+        }
+    }
+}
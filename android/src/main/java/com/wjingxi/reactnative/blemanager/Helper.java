@@ -6,45 +6,169 @@ import android.bluetooth.BluetoothGattDescriptor;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableMap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class Helper {
 
+    //按位掩码缓存的属性和权限名称，同一设备的特征通常只有几种组合
+    private static final Map<Integer, String[]> PROPERTY_NAMES = new ConcurrentHashMap<>();
+    private static final Map<Integer, String[]> CHARACTERISTIC_PERMISSION_NAMES = new ConcurrentHashMap<>();
+    private static final Map<Integer, String[]> DESCRIPTOR_PERMISSION_NAMES = new ConcurrentHashMap<>();
+
+    //Base64字符对应的6位值，同时支持标准和URL安全的字母表，-1为非法字符，-2为忽略的空白字符
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['_'] = 63;
+        BASE64_VALUES[' '] = -2;
+        BASE64_VALUES['\t'] = -2;
+        BASE64_VALUES['\r'] = -2;
+        BASE64_VALUES['\n'] = -2;
+    }
+
+    /**
+     * Base64解码后的字节数
+     *
+     * @param base64 String
+     * @return int
+     */
+    public static int base64DecodedLength(String base64) {
+        int count = 0;
+        for (int i = 0; i < base64.length(); i++) {
+            char c = base64.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            if (c >= 128 || BASE64_VALUES[c] == -1) {
+                throw new IllegalArgumentException("Invalid base64 character at " + i);
+            }
+            if (BASE64_VALUES[c] >= 0) {
+                count++;
+            }
+        }
+        if (count % 4 == 1) {
+            throw new IllegalArgumentException("Invalid base64 length");
+        }
+        return count * 3 / 4;
+    }
+
+    /**
+     * Base64解码到给定的数组，不分配新的数组
+     * 调用前用 base64DecodedLength 检查并获取长度
+     *
+     * @param base64 String
+     * @param out    byte[] 长度不小于解码后的字节数
+     * @return int 解码后的字节数
+     */
+    public static int decodeBase64(String base64, byte[] out) {
+        int bits = 0;
+        int bitCount = 0;
+        int length = 0;
+        for (int i = 0; i < base64.length(); i++) {
+            char c = base64.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            int value = BASE64_VALUES[c];
+            if (value < 0) {
+                continue;
+            }
+
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        return length;
+    }
+
     public static WritableMap decodeProperties(BluetoothGattCharacteristic characteristic) {
+        return decodeProperties(characteristic.getProperties());
+    }
 
-        // NOTE: props strings need to be consistent across iOS and Android
+    public static WritableMap decodeProperties(int properties) {
+        String[] names = PROPERTY_NAMES.get(properties);
+        if (names == null) {
+            names = propertyNames(properties);
+            PROPERTY_NAMES.put(properties, names);
+        }
+        return toMap(names);
+    }
+
+    public static WritableMap decodeCharacteristicPermissions(int permissions) {
+        String[] names = CHARACTERISTIC_PERMISSION_NAMES.get(permissions);
+        if (names == null) {
+            names = characteristicPermissionNames(permissions);
+            CHARACTERISTIC_PERMISSION_NAMES.put(permissions, names);
+        }
+        return toMap(names);
+    }
+
+    public static WritableMap decodeDescriptorPermissions(int permissions) {
+        String[] names = DESCRIPTOR_PERMISSION_NAMES.get(permissions);
+        if (names == null) {
+            names = descriptorPermissionNames(permissions);
+            DESCRIPTOR_PERMISSION_NAMES.put(permissions, names);
+        }
+        return toMap(names);
+    }
+
+    private static WritableMap toMap(String[] names) {
         WritableMap props = Arguments.createMap();
-        int properties = characteristic.getProperties();
+        for (String name : names) {
+            props.putString(name, name);
+        }
+        return props;
+    }
+
+    private static String[] propertyNames(int properties) {
+
+        // NOTE: props strings need to be consistent across iOS and Android
+        List<String> names = new ArrayList<>();
 
         if ((properties & BluetoothGattCharacteristic.PROPERTY_BROADCAST) != 0x0) {
-            props.putString("Broadcast", "Broadcast");
+            names.add("Broadcast");
         }
 
         if ((properties & BluetoothGattCharacteristic.PROPERTY_READ) != 0x0) {
-            props.putString("Read", "Read");
+            names.add("Read");
         }
 
         if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0x0) {
-            props.putString("WriteWithoutResponse", "WriteWithoutResponse");
+            names.add("WriteWithoutResponse");
         }
 
         if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0x0) {
-            props.putString("Write", "Write");
+            names.add("Write");
         }
 
         if ((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0x0) {
-            props.putString("Notify", "Notify");
+            names.add("Notify");
         }
 
         if ((properties & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0x0) {
-            props.putString("Indicate", "Indicate");
+            names.add("Indicate");
         }
 
         if ((properties & BluetoothGattCharacteristic.PROPERTY_SIGNED_WRITE) != 0x0) {
             // Android calls this "write with signature", using iOS name for now
-            props.putString("AuthenticateSignedWrites", "AuthenticateSignedWrites");
+            names.add("AuthenticateSignedWrites");
         }
 
         if ((properties & BluetoothGattCharacteristic.PROPERTY_EXTENDED_PROPS) != 0x0) {
-            props.putString("ExtendedProperties", "ExtendedProperties");
+            names.add("ExtendedProperties");
         }
 
 //      iOS only?
@@ -57,89 +181,95 @@ public class Helper {
 //                [props addObject:@"IndicateEncryptionRequired"];
 //            }
 
-        return props;
+        return names.toArray(new String[names.size()]);
     }
 
     public static WritableMap decodePermissions(BluetoothGattCharacteristic characteristic) {
+        return decodeCharacteristicPermissions(characteristic.getPermissions());
+    }
+
+    private static String[] characteristicPermissionNames(int permissions) {
 
         // NOTE: props strings need to be consistent across iOS and Android
-        WritableMap props = Arguments.createMap();
-        int permissions = characteristic.getPermissions();
+        List<String> names = new ArrayList<>();
 
         if ((permissions & BluetoothGattCharacteristic.PERMISSION_READ) != 0x0) {
-            props.putString("Read", "Read");
+            names.add("Read");
         }
 
         if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE) != 0x0) {
-            props.putString("Write", "Write");
+            names.add("Write");
         }
 
         if ((permissions & BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED) != 0x0) {
-            props.putString("ReadEncrypted", "ReadEncrypted");
+            names.add("ReadEncrypted");
         }
 
         if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED) != 0x0) {
-            props.putString("WriteEncrypted", "WriteEncrypted");
+            names.add("WriteEncrypted");
         }
 
         if ((permissions & BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED_MITM) != 0x0) {
-            props.putString("ReadEncryptedMITM", "ReadEncryptedMITM");
+            names.add("ReadEncryptedMITM");
         }
 
         if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED_MITM) != 0x0) {
-            props.putString("WriteEncryptedMITM", "WriteEncryptedMITM");
+            names.add("WriteEncryptedMITM");
         }
 
         if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE_SIGNED) != 0x0) {
-            props.putString("WriteSigned", "WriteSigned");
+            names.add("WriteSigned");
         }
 
         if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE_SIGNED_MITM) != 0x0) {
-            props.putString("WriteSignedMITM", "WriteSignedMITM");
+            names.add("WriteSignedMITM");
         }
 
-        return props;
+        return names.toArray(new String[names.size()]);
     }
 
     public static WritableMap decodePermissions(BluetoothGattDescriptor descriptor) {
+        return decodeDescriptorPermissions(descriptor.getPermissions());
+    }
+
+    private static String[] descriptorPermissionNames(int permissions) {
 
         // NOTE: props strings need to be consistent across iOS and Android
-        WritableMap props = Arguments.createMap();
-        int permissions = descriptor.getPermissions();
+        List<String> names = new ArrayList<>();
 
         if ((permissions & BluetoothGattDescriptor.PERMISSION_READ) != 0x0) {
-            props.putString("Read", "Read");
+            names.add("Read");
         }
 
         if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE) != 0x0) {
-            props.putString("Write", "Write");
+            names.add("Write");
         }
 
         if ((permissions & BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED) != 0x0) {
-            props.putString("ReadEncrypted", "ReadEncrypted");
+            names.add("ReadEncrypted");
         }
 
         if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED) != 0x0) {
-            props.putString("WriteEncrypted", "WriteEncrypted");
+            names.add("WriteEncrypted");
         }
 
         if ((permissions & BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED_MITM) != 0x0) {
-            props.putString("ReadEncryptedMITM", "ReadEncryptedMITM");
+            names.add("ReadEncryptedMITM");
         }
 
         if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED_MITM) != 0x0) {
-            props.putString("WriteEncryptedMITM", "WriteEncryptedMITM");
+            names.add("WriteEncryptedMITM");
         }
 
         if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE_SIGNED) != 0x0) {
-            props.putString("WriteSigned", "WriteSigned");
+            names.add("WriteSigned");
         }
 
         if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE_SIGNED_MITM) != 0x0) {
-            props.putString("WriteSignedMITM", "WriteSignedMITM");
+            names.add("WriteSignedMITM");
         }
 
-        return props;
+        return names.toArray(new String[names.size()]);
     }
 
 }
\ No newline at end of file
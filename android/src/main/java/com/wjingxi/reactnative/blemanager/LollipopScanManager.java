@@ -3,14 +3,13 @@ package com.wjingxi.reactnative.blemanager;
 
 import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
-import android.content.Intent;
 import android.os.Build;
 import android.os.ParcelUuid;
-import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.facebook.react.bridge.*;
@@ -18,8 +17,6 @@ import com.facebook.react.bridge.*;
 import java.util.ArrayList;
 import java.util.List;
 
-import static com.facebook.react.bridge.UiThreadUtil.runOnUiThread;
-
 /**
  * 高版本扫描管理
  */
@@ -29,193 +26,166 @@ public class LollipopScanManager extends ScanManager {
     private static final String LOG_TAG = "LollipopScanManager";
     private static final int ENABLE_REQUEST = 539;
 
-    private ReadableArray lastSettingsServiceUUIDs;
-    private int lastSettingsScanSeconds;
-    private ReadableMap lastSettingsOptions;
+    //当前扫描器配置，只在扫描处理线程中访问
+    private ScanSettings scanSettings;
+    private String scanSettingsKey;
+    private List<ScanFilter> scanFilters;
 
     LollipopScanManager(ReactApplicationContext reactContext, BleManager bleManager) {
         super(reactContext, bleManager);
     }
 
     @Override
-    public void stopScan(Callback callback) {
-        // update scanSessionId to prevent stopping next scan by running timeout thread
-        scanSessionId.incrementAndGet();
-
-        getBluetoothAdapter().getBluetoothLeScanner().stopScan(mScanCallback);
-        callback.invoke();
-    }
-
-    @Override
-    public void scan(ReadableArray serviceUUIDs, final int scanSeconds, ReadableMap options, @Nullable Callback callback) {
-        this.lastSettingsServiceUUIDs = serviceUUIDs;
-        this.lastSettingsScanSeconds = scanSeconds;
-        this.lastSettingsOptions = options;
-
+    protected boolean prepareScan(ReadableArray serviceUUIDs, ReadableMap options) {
         ScanSettings.Builder scanSettingsBuilder = new ScanSettings.Builder();
         List<ScanFilter> filters = new ArrayList<>();
 
+        //记录扫描器配置，用于判断是否需要重新开始扫描器
+        StringBuilder settingsKey = new StringBuilder();
+
         scanSettingsBuilder.setScanMode(options.getInt("scanMode"));
+        settingsKey.append(options.getInt("scanMode"));
 
         //版本大于Marshmallow，设置硬件匹配器
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             scanSettingsBuilder.setNumOfMatches(options.getInt("numberOfMatches"));
             scanSettingsBuilder.setMatchMode(options.getInt("matchMode"));
+            settingsKey.append('|').append(options.getInt("numberOfMatches")).append('|').append(options.getInt("matchMode"));
         }
 
+        //硬件批量上报：控制器缓存扫描结果，每 reportDelay 毫秒通过 onBatchScanResults 一次性上报
+        //不支持硬件批量的设备，仍按单个结果上报
+        if (options.hasKey("reportDelay") && options.getInt("reportDelay") > 0) {
+            if (getBluetoothAdapter().isOffloadedScanBatchingSupported()) {
+                scanSettingsBuilder.setReportDelay(options.getInt("reportDelay"));
+                settingsKey.append('|').append(options.getInt("reportDelay"));
+            } else {
+                Log.w(LOG_TAG, "设备不支持硬件批量扫描，reportDelay 无效");
+            }
+        }
+
+        //服务UUID由扫描器过滤，其它条件在扫描结果中过滤
+        configureFilter(options, null);
+
         //如果指定了扫描过滤的服务UUID，准备筛选数组
+        //厂商数据和服务数据条件同时交给扫描器，由控制器先过滤
         if (serviceUUIDs.size() > 0) {
             for (int i = 0; i < serviceUUIDs.size(); i++) {
                 //整理filters
-                ScanFilter filter = new ScanFilter.Builder().setServiceUuid(new ParcelUuid(UUIDHelper.uuidFromString(serviceUUIDs.getString(i)))).build();
-                filters.add(filter);
+                ScanFilter.Builder builder = new ScanFilter.Builder().setServiceUuid(new ParcelUuid(UUIDHelper.uuidFromString(serviceUUIDs.getString(i))));
+                filters.add(applyFilter(builder).build());
 
                 Log.d(bleManager.LOG_TAG, "Filter service: " + serviceUUIDs.getString(i));
             }
+        } else if (peripheralFilter.manufacturerId >= 0 || peripheralFilter.serviceDataUUID != null) {
+            filters.add(applyFilter(new ScanFilter.Builder()).build());
         }
 
-        //开始扫描
-        getBluetoothAdapter()
-                .getBluetoothLeScanner()
-                .startScan(filters, scanSettingsBuilder.build(), mScanCallback);
+        boolean changed = !settingsKey.toString().equals(scanSettingsKey) || !filters.equals(scanFilters);
 
-        //如果指定了扫描时间，则定时
-        if (scanSeconds > 0) {
-            Thread thread = new Thread() {
-                //计算一个比当前扫描session id + 1 的值
-                private int currentScanSession = scanSessionId.incrementAndGet();
+        scanSettings = scanSettingsBuilder.build();
+        scanSettingsKey = settingsKey.toString();
+        scanFilters = filters;
 
-                @Override
-                public void run() {
-                    //延迟指定时间秒
-                    try {
-                        Thread.sleep(scanSeconds * 1000);
-                    } catch (InterruptedException ignored) {
-                    }
+        return changed;
+    }
 
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            BluetoothAdapter btAdapter = getBluetoothAdapter();
-
-                            // 检查当前扫描没有停止
-                            if (scanSessionId.intValue() == currentScanSession) {
-                                //检查当前蓝牙是否开启，开启则停止扫描
-                                if (btAdapter.getState() == BluetoothAdapter.STATE_ON) {
-                                    btAdapter.getBluetoothLeScanner().stopScan(mScanCallback);
-                                }
-
-                                //发送事件
-                                WritableMap map = Arguments.createMap();
-                                bleManager.sendEvent("BleManagerStopScan", map);
-                            }
-                        }
-                    });
+    @Override
+    protected boolean startScanner() {
+        BluetoothLeScanner scanner = getBluetoothAdapter().getBluetoothLeScanner();
+        if (scanner == null) { //蓝牙未开启
+            return false;
+        }
 
-                }
+        //开始扫描
+        scanner.startScan(scanFilters, scanSettings, mScanCallback);
+        return true;
+    }
 
-            };
-            thread.start();
+    @Override
+    protected void stopScanner() {
+        BluetoothAdapter btAdapter = getBluetoothAdapter();
+
+        //检查当前蓝牙是否开启，开启则停止扫描
+        if (btAdapter.getState() == BluetoothAdapter.STATE_ON) {
+            btAdapter.getBluetoothLeScanner().stopScan(mScanCallback);
         }
+    }
 
-        //完成处理回调
-        if (callback != null) {
-            callback.invoke();
+    /**
+     * 把可以由扫描器处理的过滤条件设置到 ScanFilter
+     *
+     * @param builder ScanFilter.Builder
+     * @return ScanFilter.Builder
+     */
+    private ScanFilter.Builder applyFilter(ScanFilter.Builder builder) {
+        if (peripheralFilter.manufacturerId >= 0) {
+            byte[] data = peripheralFilter.manufacturerData != null ? peripheralFilter.manufacturerData : new byte[0];
+            if (peripheralFilter.manufacturerDataMask != null && peripheralFilter.manufacturerDataMask.length == data.length) {
+                builder.setManufacturerData(peripheralFilter.manufacturerId, data, peripheralFilter.manufacturerDataMask);
+            } else {
+                builder.setManufacturerData(peripheralFilter.manufacturerId, data);
+            }
         }
+
+        if (peripheralFilter.serviceDataUUID != null) {
+            ParcelUuid uuid = new ParcelUuid(peripheralFilter.serviceDataUUID);
+            byte[] data = peripheralFilter.serviceData != null ? peripheralFilter.serviceData : new byte[0];
+            if (peripheralFilter.serviceDataMask != null && peripheralFilter.serviceDataMask.length == data.length) {
+                builder.setServiceData(uuid, data, peripheralFilter.serviceDataMask);
+            } else {
+                builder.setServiceData(uuid, data);
+            }
+        }
+
+        return builder;
     }
 
     private ScanCallback mScanCallback = new ScanCallback() {
         @Override
         public void onScanResult(final int callbackType, final ScanResult result) {
 
-            runOnUiThread(new Runnable() {
+            postDiscovered(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes());
+        }
+
+        @Override
+        public void onBatchScanResults(final List<ScanResult> results) {
+            final long receivedAt = System.nanoTime();
+            scanStats.onReceived(results.size());
+
+            scanHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    String address = result.getDevice().getAddress();
-                    Peripheral peripheral = null;
-
-                    Log.i(bleManager.LOG_TAG, "扫描到设备，设备名: " + result.getDevice().getName() + "，Mac: " + address);
-
-                    if (!bleManager.peripherals.containsKey(address)) { //该设备未记录，添加记录
-                        peripheral = new Peripheral(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes(), reactContext);
-                        bleManager.peripherals.put(address, peripheral);
-                    } else { //该设备已记录，更新记录
-                        peripheral = bleManager.peripherals.get(address);
-                        peripheral.updateRssi(result.getRssi());
-                        peripheral.updateData(result.getScanRecord().getBytes());
+                    scanStats.onDequeued();
+
+                    if (!isScanRequested()) {
+                        scanStats.onDropped(results.size());
+                        return;
                     }
 
-                    //发送事件
-                    WritableMap map = peripheral.asWritableMap();
-                    bleManager.sendEvent("BleManagerDiscoverPeripheral", map);
+                    List<Peripheral> peripherals = new ArrayList<>(results.size());
+                    for (ScanResult result : results) {
+                        if (!peripheralFilter.matches(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes())) {
+                            scanStats.onFiltered();
+                            continue;
+                        }
+                        peripherals.add(updatePeripheral(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes(), receivedAt));
+                    }
+                    onDiscoveredBatch(peripherals);
                 }
             });
         }
 
-        @Override
-        public void onBatchScanResults(final List<ScanResult> results) {
-        }
-
         @Override
         public void onScanFailed(final int errorCode) {
             Log.e(LOG_TAG, "开启扫描失败, errorCode: " + errorCode);
-            Log.e(LOG_TAG, "将关闭蓝牙重新开启");
-
-//            WritableMap map = Arguments.createMap();
-//            bleManager.sendEvent("BleManagerStopScan", map);
-
-            // 一旦发生错误，除了重启蓝牙再没有其它解决办法
-            if (getBluetoothAdapter() != null) {
-                getBluetoothAdapter().disable();
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        while (true) { //每0.5s检测一次蓝牙是否已经彻底关闭，如果已关闭则打开
-                            //延迟0.5s
-                            try {
-                                Thread.sleep(500);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-
-                            Log.e(LOG_TAG, "检查蓝牙是否已经彻底关闭");
-
-                            //要等待蓝牙彻底关闭，然后再打开，才能实现重启效果
-                            if (getBluetoothAdapter().getState() == BluetoothAdapter.STATE_OFF) {
-                                Log.e(LOG_TAG, "蓝牙已经彻底关闭，重新打开");
-
-                                //开启蓝牙
-                                getBluetoothAdapter().enable();
-
-                                //等待蓝牙开启后，开始扫描，打开扫描
-                                new Thread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        while (true) {
-                                            try {
-                                                Thread.sleep(500);
-                                            } catch (InterruptedException e) {
-                                                e.printStackTrace();
-                                            }
-
-                                            Log.e(LOG_TAG, "检查蓝牙是否已经重新打开");
-                                            if (getBluetoothAdapter().getState() == BluetoothAdapter.STATE_ON) {
-                                                Log.e(LOG_TAG, "重新开启蓝牙扫描");
-                                                scan(lastSettingsServiceUUIDs, lastSettingsScanSeconds, lastSettingsOptions, null);
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }).start();
-
-                                break;
-                            }
-                        }
-                    }
 
-                }).start();
+            //扫描器已经在运行，不需要恢复
+            if (errorCode == SCAN_FAILED_ALREADY_STARTED) {
+                return;
             }
 
+            onScannerFailed(errorCode);
         }
     };
 }
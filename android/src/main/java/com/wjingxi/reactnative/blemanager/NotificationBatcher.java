@@ -0,0 +1,138 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 通知合并发送
+ * 在GATT回调线程中积累一个特征的通知，每隔 interval 毫秒（或积累到 maxPackets 个）以一个事件发送
+ * 事件中所有通知的数据首尾相连放在 values 中，lengths 为每个通知的字节数，timestamps 为每个通知到达的时间
+ */
+class NotificationBatcher {
+
+    static final String EVENT_NAME = "BleManagerDidUpdateValuesForCharacteristic";
+
+    //只设置了 maxPackets 时的发送间隔
+    static final int DEFAULT_INTERVAL = 50;
+
+    private final Peripheral peripheral;
+    private final BleTimer timer;
+    private final String service;
+    private final String characteristic;
+    //特征句柄，> 0 时事件带句柄
+    private final int handle;
+
+    //发送间隔，毫秒
+    private final int interval;
+    //单个事件最多包含的通知数，<= 0 为不限制
+    private final int maxPackets;
+
+    //等待发送的通知和到达时间（SystemClock.elapsedRealtimeNanos）
+    //通知的数据数组由协议栈每次新分配，不需要复制
+    private final List<byte[]> values;
+    private long[] timestamps;
+    private int totalBytes;
+
+    private BleTimer.Timeout flushTimeout;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    NotificationBatcher(Peripheral peripheral, BluetoothGattCharacteristic characteristic, int handle, int interval, int maxPackets, BleTimer timer) {
+        this.peripheral = peripheral;
+        this.handle = handle;
+        this.timer = timer;
+        this.service = characteristic.getService().getUuid().toString();
+        this.characteristic = characteristic.getUuid().toString();
+        this.interval = interval;
+        this.maxPackets = maxPackets;
+
+        int capacity = maxPackets > 0 ? maxPackets : 16;
+        this.values = new ArrayList<>(capacity);
+        this.timestamps = new long[capacity];
+    }
+
+    /**
+     * 加入一个通知
+     *
+     * @param value byte[]
+     * @param time  long 到达时的 SystemClock.elapsedRealtimeNanos()
+     */
+    void add(byte[] value, long time) {
+        boolean flushNow;
+
+        synchronized (this) {
+            int index = values.size();
+            if (index == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, index * 2);
+            }
+            values.add(value);
+            timestamps[index] = time;
+            totalBytes += value.length;
+
+            flushNow = maxPackets > 0 && values.size() >= maxPackets;
+            if (!flushNow && flushTimeout == null) {
+                flushTimeout = timer.schedule(flushRunnable, interval);
+            }
+        }
+
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即发送所有等待中的通知
+     */
+    void flush() {
+        //在锁内发送，保证GATT回调线程和定时线程发送的事件按顺序到达
+        synchronized (this) {
+            BleTimer.cancel(flushTimeout);
+            flushTimeout = null;
+
+            if (values.isEmpty()) {
+                return;
+            }
+
+            WritableArray data = Arguments.createArray();
+            WritableArray lengths = Arguments.createArray();
+            WritableArray times = Arguments.createArray();
+            for (int i = 0; i < values.size(); i++) {
+                byte[] value = values.get(i);
+                for (byte b : value) {
+                    data.pushInt(b & 0xFF);
+                }
+                lengths.pushInt(value.length);
+                times.pushDouble(timestamps[i] / 1000000.0);
+            }
+
+            WritableMap map = Arguments.createMap();
+            map.putString("peripheral", peripheral.getDevice().getAddress());
+            map.putString("service", service);
+            map.putString("characteristic", characteristic);
+            if (handle > 0) {
+                map.putInt("handle", handle);
+            }
+            map.putArray("values", data);
+            map.putArray("lengths", lengths);
+            map.putArray("timestamps", times);
+            map.putInt("bytes", totalBytes);
+
+            values.clear();
+            totalBytes = 0;
+
+            peripheral.sendEvent(EVENT_NAME, map);
+        }
+    }
+}
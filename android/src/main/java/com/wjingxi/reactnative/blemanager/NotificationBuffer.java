@@ -0,0 +1,207 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * 通知环形缓冲
+ * 一个特征的通知不发送事件，先记录在固定容量的环形缓冲中，由JS调用 drainNotifications 按自己的节奏取出
+ * 每个通知按到达顺序编号，被丢弃的通知也占用序号，JS可以由序号的间隔发现丢包
+ * 缓冲从空变为非空时发送一次 BleManagerNotificationsAvailable 事件，取出后再有通知才会再次发送
+ * 只取出一部分时，缓冲中还有通知，立即再次发送事件
+ */
+class NotificationBuffer {
+
+    static final String EVENT_NAME = "BleManagerNotificationsAvailable";
+
+    //缓冲满时的处理方式
+    //丢弃最早的通知
+    static final int DROP_OLDEST = 0;
+    //丢弃新到的通知
+    static final int DROP_NEWEST = 1;
+    //缓冲满时关闭设备的通知，取出到一半以下时重新开启，关闭期间仍然到达的通知丢弃
+    static final int PAUSE = 2;
+
+    private final Peripheral peripheral;
+    private final BluetoothGattCharacteristic characteristic;
+    private final String service;
+    private final String characteristicUUID;
+    //特征句柄，> 0 时事件和取出的结果带句柄
+    private final int handle;
+    private final int overflow;
+
+    //环形缓冲，head 为最早的通知
+    private final byte[][] values;
+    private final long[] timestamps;
+    private final long[] sequences;
+    private int head;
+    private int size;
+
+    //下一个通知的序号
+    private long nextSequence;
+    //丢弃的通知数
+    private long dropped;
+    //是否已关闭设备的通知
+    private boolean paused;
+    //是否已发送有数据的事件，取出后重置
+    private boolean available;
+
+    NotificationBuffer(Peripheral peripheral, BluetoothGattCharacteristic characteristic, int handle, int capacity, int overflow) {
+        this.peripheral = peripheral;
+        this.handle = handle;
+        this.characteristic = characteristic;
+        this.service = characteristic.getService().getUuid().toString();
+        this.characteristicUUID = characteristic.getUuid().toString();
+        this.overflow = overflow;
+        this.values = new byte[capacity][];
+        this.timestamps = new long[capacity];
+        this.sequences = new long[capacity];
+    }
+
+    /**
+     * 解析缓冲满时的处理方式
+     *
+     * @param overflow String dropOldest | dropNewest | pause
+     * @return int
+     */
+    static int parseOverflow(String overflow) {
+        if ("dropNewest".equals(overflow)) {
+            return DROP_NEWEST;
+        } else if ("pause".equals(overflow)) {
+            return PAUSE;
+        }
+        return DROP_OLDEST;
+    }
+
+    /**
+     * 记录一个通知，在GATT回调线程中调用
+     *
+     * @param value byte[]
+     * @param time  long 到达时的 SystemClock.elapsedRealtimeNanos()
+     */
+    void add(byte[] value, long time) {
+        boolean pause = false;
+
+        synchronized (this) {
+            long sequence = nextSequence++;
+
+            //已关闭设备的通知，关闭生效前仍然到达的通知丢弃，直到取出到一半以下
+            if (paused) {
+                dropped++;
+                return;
+            }
+
+            if (size == values.length) {
+                dropped++;
+                if (overflow != DROP_OLDEST) {
+                    return;
+                }
+                values[head] = null;
+                head = (head + 1) % values.length;
+                size--;
+            }
+
+            int index = (head + size) % values.length;
+            values[index] = value;
+            timestamps[index] = time;
+            sequences[index] = sequence;
+            size++;
+
+            if (overflow == PAUSE && size == values.length && !paused) {
+                paused = true;
+                pause = true;
+            }
+
+            if (!available) {
+                available = true;
+                sendAvailable();
+            }
+        }
+
+        //在缓冲的锁外排队GATT命令，避免和Peripheral的锁交叉
+        if (pause) {
+            peripheral.pauseNotification(characteristic, true);
+        }
+    }
+
+    /**
+     * 按到达顺序取出通知
+     * 和合并发送的事件格式相同，另外包含每个通知的序号、丢弃数和剩余数
+     *
+     * @param max int 最多取出的通知数，<= 0 为全部取出
+     * @return WritableMap
+     */
+    WritableMap drain(int max) {
+        boolean resume = false;
+        WritableMap map = Arguments.createMap();
+
+        synchronized (this) {
+            int count = max > 0 ? Math.min(max, size) : size;
+
+            WritableArray data = Arguments.createArray();
+            WritableArray lengths = Arguments.createArray();
+            WritableArray times = Arguments.createArray();
+            WritableArray numbers = Arguments.createArray();
+            for (int i = 0; i < count; i++) {
+                byte[] value = values[head];
+                for (byte b : value) {
+                    data.pushInt(b & 0xFF);
+                }
+                lengths.pushInt(value.length);
+                times.pushDouble(timestamps[head] / 1000000.0);
+                numbers.pushDouble(sequences[head]);
+
+                values[head] = null;
+                head = (head + 1) % values.length;
+            }
+            size -= count;
+            //还有剩余时再次通知JS取出
+            available = size > 0;
+            if (available) {
+                sendAvailable();
+            }
+
+            if (paused && size <= values.length / 2) {
+                paused = false;
+                resume = true;
+            }
+
+            map.putString("peripheral", peripheral.getDevice().getAddress());
+            map.putString("service", service);
+            map.putString("characteristic", characteristicUUID);
+            if (handle > 0) {
+                map.putInt("handle", handle);
+            }
+            map.putArray("values", data);
+            map.putArray("lengths", lengths);
+            map.putArray("timestamps", times);
+            map.putArray("sequences", numbers);
+            map.putInt("remaining", size);
+            map.putDouble("dropped", dropped);
+            map.putBoolean("paused", paused);
+        }
+
+        if (resume) {
+            peripheral.pauseNotification(characteristic, false);
+        }
+
+        return map;
+    }
+
+    /**
+     * 发送缓冲中有通知的事件，在锁内调用
+     */
+    private void sendAvailable() {
+        WritableMap map = Arguments.createMap();
+        map.putString("peripheral", peripheral.getDevice().getAddress());
+        map.putString("service", service);
+        map.putString("characteristic", characteristicUUID);
+        if (handle > 0) {
+            map.putInt("handle", handle);
+        }
+        peripheral.sendEvent(EVENT_NAME, map);
+    }
+}
@@ -8,6 +8,9 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Base64;
 import android.util.Log;
@@ -15,6 +18,7 @@ import android.util.Log;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
@@ -22,11 +26,12 @@ import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static android.os.Build.VERSION_CODES.LOLLIPOP;
 
@@ -39,39 +44,105 @@ public class Peripheral extends BluetoothGattCallback {
     private static final String CHARACTERISTIC_NOTIFICATION_CONFIG = "00002902-0000-1000-8000-00805f9b34fb";
     public static final String LOG_TAG = "Peripheral";
 
-    private final BluetoothDevice device;
-    private BluetoothGatt gatt;
-
-    private byte[] advertisingData;
-    private int advertisingRSSI;
-    private boolean connected = false;
-    private Callback requestMTUCallback;
+    //连接后未协商时的ATT MTU，每个写包的数据为 MTU - 3 字节
+    static final int DEFAULT_MTU = 23;
+    private static final int ATT_WRITE_HEADER = 3;
 
+    private final BluetoothDevice device;
+    //GATT操作和回调都以该Peripheral为锁，不同设备之间互不阻塞
+    private volatile BluetoothGatt gatt;
+
+    //广播数据由扫描线程更新，JS调用的线程读取
+    private volatile byte[] advertisingData;
+    private volatile int advertisingRSSI;
+    //广播数据指纹，用于判断广播内容是否变化
+    private volatile int advertisingFingerprint;
+
+    //最近一次扫描到的时间
+    private volatile long lastSeen;
+    //最近一次扫描器回调的 System.nanoTime()，用于统计发送延迟
+    private volatile long receivedAt;
+
+    //平滑后的RSSI和估算的距离，由扫描线程更新，未开启平滑时为 null
+    private final RssiFilter.State rssiState = new RssiFilter.State();
+    private volatile Double filteredRSSI;
+    private volatile Double distance;
+
+    //上一次发送给JS的广播状态
+    private boolean reported = false;
+    private int reportedFingerprint;
+    private int reportedRSSI;
+    private long reportedTime;
+    private volatile boolean connected = false;
 
     private Callback connectCallback;
-    private Callback retrieveServicesCallback;
-    private Callback readCallback;
-    private Callback readRSSICallback;
-    private Callback writeCallback;
-    private Callback registerNotifyCallback;
-
-    private List<byte[]> writeQueue = new ArrayList<>();
-
-    public Peripheral(BluetoothDevice device, int advertisingRSSI, byte[] scanRecord, ReactContext reactContext) {
+    //连接后自动请求的MTU，0为不请求
+    private int autoMtu;
+    //协商后的MTU，断开后恢复默认
+    private volatile int mtu = DEFAULT_MTU;
+
+    //GATT命令队列，同一时间只有一个命令等待GATT回调，回调到达后立即执行下一个
+    //只在该Peripheral的锁内访问
+    private final ArrayDeque<BLECommand> commandQueue = new ArrayDeque<>();
+    private BLECommand currentCommand;
+
+    //命令等待GATT回调的超时时间
+    private static final long COMMAND_TIMEOUT = 10000;
+    private static final long RETRIEVE_SERVICES_TIMEOUT = 30000;
+
+    //写数据时协议栈繁忙的最大连续重试次数和默认重试间隔
+    private static final int MAX_BUSY_RETRIES = 50;
+    private static final int DEFAULT_BUSY_RETRY_DELAY = 5;
+    //分包写数据时发送进度事件的最小间隔，纳秒
+    private static final long WRITE_PROGRESS_INTERVAL = 100 * 1000000L;
+
+    //整包大小的分包缓冲，同一时间只有一个写命令在发送，分包大小（MTU）变化时才重新分配
+    private byte[] chunkBuffer;
+
+    //特征索引，发现服务后建立，断开连接或服务变化时丢弃
+    private volatile CharacteristicIndex characteristicIndex;
+    //最近一次发现服务时使用的缓存
+    private volatile GattCache gattCache;
+
+    //本次连接是否已发现服务
+    private volatile boolean servicesDiscovered;
+    //服务描述，发现服务后在模块线程中生成一次，之后复制使用
+    private final Object descriptionLock = new Object();
+    private WritableMap serviceDescription;
+
+    //合并发送通知的特征，GATT回调线程不加锁读取
+    //特征对象在一次连接内不变，断开后清空
+    private final Map<BluetoothGattCharacteristic, NotificationBatcher> notificationBatchers = new ConcurrentHashMap<>();
+    //缓冲通知、由JS取出的特征
+    private final Map<BluetoothGattCharacteristic, NotificationBuffer> notificationBuffers = new ConcurrentHashMap<>();
+    //按句柄开启通知的特征，逐个发送的通知只带句柄
+    private final Map<BluetoothGattCharacteristic, Integer> notificationHandles = new ConcurrentHashMap<>();
+
+    private final BleTimer timer;
+
+    //生成服务描述的线程
+    private static Handler servicesHandler;
+
+    public Peripheral(BluetoothDevice device, int advertisingRSSI, byte[] scanRecord, ReactContext reactContext, BleTimer timer) {
 
         this.device = device;
         this.advertisingRSSI = advertisingRSSI;
         this.advertisingData = scanRecord;
+        this.advertisingFingerprint = Arrays.hashCode(scanRecord);
+        this.lastSeen = SystemClock.elapsedRealtime();
         this.reactContext = reactContext;
+        this.timer = timer;
 
     }
 
-    public Peripheral(BluetoothDevice device, ReactContext reactContext) {
+    public Peripheral(BluetoothDevice device, ReactContext reactContext, BleTimer timer) {
         this.device = device;
+        this.lastSeen = SystemClock.elapsedRealtime();
         this.reactContext = reactContext;
+        this.timer = timer;
     }
 
-    private void sendEvent(String eventName, @Nullable WritableMap params) {
+    void sendEvent(String eventName, @Nullable WritableMap params) {
         reactContext
                 .getJSModule(RCTNativeAppEventEmitter.class)
                 .emit(eventName, params);
@@ -84,56 +155,85 @@ public class Peripheral extends BluetoothGattCallback {
         Log.d(LOG_TAG, "Peripheral event (" + eventName + "):" + device.getAddress());
     }
 
-    public void connect(Callback callback, Activity activity) {
+    public synchronized void connect(Callback callback, Activity activity, int autoMtu) {
         if (!connected) { //还未连接
             //Log.e(LOG_TAG, "该设备当前未连接");
 
             BluetoothDevice device = getDevice();
             this.connectCallback = callback;
+            this.autoMtu = autoMtu;
             gatt = device.connectGatt(activity, false, this);
         } else { //已连接
             //Log.e(LOG_TAG, "该设备当前已连接");
 
-            synchronized (this) {
-                if (gatt != null) {
-                    callback.invoke();
-                } else {
-                    callback.invoke("BluetoothGatt is null");
-                }
+            if (gatt != null) {
+                callback.invoke();
+            } else {
+                callback.invoke("BluetoothGatt is null");
             }
         }
     }
 
-    public void disconnect() {
+    public synchronized void disconnect() {
         connectCallback = null;
         connected = false;
+        resetConnectionState();
+        failCommands("Device disconnected");
+
+        if (gatt != null) {
+            try {
+                gatt.disconnect();
+                gatt.close();
+                gatt = null;
+                Log.d(LOG_TAG, "Disconnect");
+                sendConnectionEvent(device, "BleManagerDisconnectPeripheral");
+            } catch (Exception e) {
+                sendConnectionEvent(device, "BleManagerDisconnectPeripheral");
+                Log.d(LOG_TAG, "Error on disconnect", e);
+            }
+        } else
+            Log.d(LOG_TAG, "GATT is null");
+    }
 
-        synchronized (this) {
-            if (gatt != null) {
-                try {
-                    gatt.disconnect();
-                    gatt.close();
-                    gatt = null;
-                    Log.d(LOG_TAG, "Disconnect");
-                    sendConnectionEvent(device, "BleManagerDisconnectPeripheral");
-                } catch (Exception e) {
-                    sendConnectionEvent(device, "BleManagerDisconnectPeripheral");
-                    Log.d(LOG_TAG, "Error on disconnect", e);
-                }
-            } else
-                Log.d(LOG_TAG, "GATT is null");
-        }
+    /**
+     * 重置一次连接内的状态，主动断开和连接断开时都要调用
+     * 主动断开关闭 gatt 后，协议栈通常不会再回调 STATE_DISCONNECTED
+     */
+    private synchronized void resetConnectionState() {
+        mtu = DEFAULT_MTU;
+        //特征对象属于关闭的 gatt，重连后按新发现的服务重建
+        characteristicIndex = null;
+        servicesDiscovered = false;
+        invalidateServiceDescription();
+        //合并中的通知先发送，各特征的发送方式按旧的特征对象保存，重连后不再使用
+        flushNotifications();
+        //缓冲中未取出的通知属于上一次连接，丢弃后 drainNotifications 不再返回
+        notificationBuffers.clear();
+        notificationHandles.clear();
     }
 
     public WritableMap asWritableMap() {
+        return asWritableMap(AdvertisingParser.DEFAULT);
+    }
+
+    public WritableMap asWritableMap(AdvertisingParser advertisingParser) {
 
         WritableMap map = Arguments.createMap();
 
         try {
             map.putString("name", device.getName());
             map.putString("id", device.getAddress()); // mac address
-            map.putMap("advertising", byteArrayToWritableMap(advertisingData));
+            map.putMap("advertising", advertisingParser.toWritableMap(advertisingData));
             map.putInt("rssi", advertisingRSSI);
+
+            Double filteredRSSI = this.filteredRSSI;
+            if (filteredRSSI != null) {
+                map.putDouble("filteredRssi", Math.round(filteredRSSI * 10) / 10.0);
+            }
+            Double distance = this.distance;
+            if (distance != null) {
+                map.putDouble("distance", Math.round(distance * 100) / 100.0);
+            }
         } catch (Exception e) { // this shouldn't happen
             e.printStackTrace();
         }
@@ -145,55 +245,92 @@ public class Peripheral extends BluetoothGattCallback {
 
         WritableMap map = asWritableMap();
 
+        if (connected && gatt != null) {
+            map.merge(serviceDescription(gatt));
+            map.putInt("mtu", mtu);
+        }
+
+        return map;
+    }
+
+    /**
+     * 已连接设备的信息，已发现服务时包含服务描述
+     */
+    public WritableMap asConnectedWritableMap() {
+        return servicesDiscovered ? asWritableMap(gatt) : asWritableMap();
+    }
+
+    /**
+     * 获取服务描述，一次连接内只生成一次，调用方复制后使用
+     *
+     * @param gatt BluetoothGatt
+     * @return ReadableMap {services, characteristics}
+     */
+    private ReadableMap serviceDescription(BluetoothGatt gatt) {
+        synchronized (descriptionLock) {
+            if (serviceDescription == null) {
+                serviceDescription = describeServices(gatt.getServices());
+            }
+            return serviceDescription;
+        }
+    }
+
+    /**
+     * 丢弃服务描述，断开连接、服务变化或描述符的值变化时调用
+     */
+    private void invalidateServiceDescription() {
+        synchronized (descriptionLock) {
+            serviceDescription = null;
+        }
+    }
+
+    private static WritableMap describeServices(List<BluetoothGattService> services) {
+        WritableMap map = Arguments.createMap();
         WritableArray servicesArray = Arguments.createArray();
         WritableArray characteristicsArray = Arguments.createArray();
 
-        if (connected && gatt != null) {
-            for (Iterator<BluetoothGattService> it = gatt.getServices().iterator(); it.hasNext(); ) {
-                BluetoothGattService service = it.next();
-                WritableMap serviceMap = Arguments.createMap();
-                serviceMap.putString("uuid", UUIDHelper.uuidToString(service.getUuid()));
-
+        for (BluetoothGattService service : services) {
+            String serviceUUID = UUIDHelper.uuidToString(service.getUuid());
+            WritableMap serviceMap = Arguments.createMap();
+            serviceMap.putString("uuid", serviceUUID);
 
-                for (Iterator<BluetoothGattCharacteristic> itCharacteristic = service.getCharacteristics().iterator(); itCharacteristic.hasNext(); ) {
-                    BluetoothGattCharacteristic characteristic = itCharacteristic.next();
-                    WritableMap characteristicsMap = Arguments.createMap();
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                WritableMap characteristicsMap = Arguments.createMap();
 
-                    characteristicsMap.putString("service", UUIDHelper.uuidToString(service.getUuid()));
-                    characteristicsMap.putString("characteristic", UUIDHelper.uuidToString(characteristic.getUuid()));
+                characteristicsMap.putString("service", serviceUUID);
+                characteristicsMap.putString("characteristic", UUIDHelper.uuidToString(characteristic.getUuid()));
 
-                    characteristicsMap.putMap("properties", Helper.decodeProperties(characteristic));
+                characteristicsMap.putMap("properties", Helper.decodeProperties(characteristic));
 
-                    if (characteristic.getPermissions() > 0) {
-                        characteristicsMap.putMap("permissions", Helper.decodePermissions(characteristic));
-                    }
+                if (characteristic.getPermissions() > 0) {
+                    characteristicsMap.putMap("permissions", Helper.decodePermissions(characteristic));
+                }
 
 
-                    WritableArray descriptorsArray = Arguments.createArray();
+                WritableArray descriptorsArray = Arguments.createArray();
 
-                    for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
-                        WritableMap descriptorMap = Arguments.createMap();
-                        descriptorMap.putString("uuid", UUIDHelper.uuidToString(descriptor.getUuid()));
-                        if (descriptor.getValue() != null)
-                            descriptorMap.putString("value", Base64.encodeToString(descriptor.getValue(), Base64.NO_WRAP));
-                        else
-                            descriptorMap.putString("value", null);
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    WritableMap descriptorMap = Arguments.createMap();
+                    descriptorMap.putString("uuid", UUIDHelper.uuidToString(descriptor.getUuid()));
+                    if (descriptor.getValue() != null)
+                        descriptorMap.putString("value", Base64.encodeToString(descriptor.getValue(), Base64.NO_WRAP));
+                    else
+                        descriptorMap.putString("value", null);
 
-                        if (descriptor.getPermissions() > 0) {
-                            descriptorMap.putMap("permissions", Helper.decodePermissions(descriptor));
-                        }
-                        descriptorsArray.pushMap(descriptorMap);
+                    if (descriptor.getPermissions() > 0) {
+                        descriptorMap.putMap("permissions", Helper.decodePermissions(descriptor));
                     }
-                    if (descriptorsArray.size() > 0) {
-                        characteristicsMap.putArray("descriptors", descriptorsArray);
-                    }
-                    characteristicsArray.pushMap(characteristicsMap);
+                    descriptorsArray.pushMap(descriptorMap);
+                }
+                if (descriptorsArray.size() > 0) {
+                    characteristicsMap.putArray("descriptors", descriptorsArray);
                 }
-                servicesArray.pushMap(serviceMap);
+                characteristicsArray.pushMap(characteristicsMap);
             }
-            map.putArray("services", servicesArray);
-            map.putArray("characteristics", characteristicsArray);
+            servicesArray.pushMap(serviceMap);
         }
+        map.putArray("services", servicesArray);
+        map.putArray("characteristics", characteristicsArray);
 
         return map;
     }
@@ -205,14 +342,6 @@ public class Peripheral extends BluetoothGattCallback {
         return object;
     }
 
-    static WritableMap byteArrayToWritableMap(byte[] bytes) throws JSONException {
-        WritableMap object = Arguments.createMap();
-        object.putString("CDVType", "ArrayBuffer");
-        object.putString("data", Base64.encodeToString(bytes, Base64.NO_WRAP));
-        object.putArray("bytes", BleManager.bytesToWritableArray(bytes));
-        return object;
-    }
-
     public boolean isConnected() {
         return connected;
     }
@@ -229,16 +358,118 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
     @Override
-    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+    public void onServicesDiscovered(BluetoothGatt gatt, final int status) {
         super.onServicesDiscovered(gatt, status);
 
+        final boolean success = status == BluetoothGatt.GATT_SUCCESS;
+        final BLECommand command;
         synchronized (this) {
-            if (retrieveServicesCallback != null) {
-                WritableMap map = this.asWritableMap(gatt);
-                retrieveServicesCallback.invoke(null, map);
-                retrieveServicesCallback = null;
+            characteristicIndex = success ? CharacteristicIndex.build(gatt.getServices()) : null;
+            servicesDiscovered = success;
+            invalidateServiceDescription();
+
+            command = currentCommand(BLECommand.RETRIEVE_SERVICES);
+        }
+
+        if (command == null) {
+            return;
+        }
+
+        //服务描述和缓存在单独的线程中生成，不占用GATT回调线程、RN的模块线程和定时器线程，生成期间命令仍然是当前命令
+        final BluetoothGatt discoveredGatt = gatt;
+        servicesHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                WritableMap map = asWritableMap(discoveredGatt);
+
+                synchronized (Peripheral.this) {
+                    //生成期间超时或断开时命令已回调
+                    if (currentCommand == command) {
+                        //已经回调了缓存的结构时，发现失败要作为错误通知JS
+                        if (!success && command.getCachedLayout() != null) {
+                            command.invoke("Retrieve services failed status=" + status);
+                        } else {
+                            command.invoke(null, map);
+                        }
+                        completeCommand(command);
+                    }
+                }
+
+                //先回调JS，再写入磁盘缓存
+                if (command.getCache() != null && success) {
+                    updateGattCache(command, discoveredGatt.getServices());
+                }
             }
+        });
+    }
+
+    /**
+     * 生成服务描述的线程，所有设备共用，第一次使用时创建
+     */
+    private static synchronized Handler servicesHandler() {
+        if (servicesHandler == null) {
+            HandlerThread thread = new HandlerThread("BleManagerServices");
+            thread.start();
+            servicesHandler = new Handler(thread.getLooper());
         }
+        return servicesHandler;
+    }
+
+    /**
+     * 设备的服务发生变化（API 31 起的回调），丢弃特征索引和缓存，下次使用时按当前的服务重建
+     */
+    public void onServiceChanged(BluetoothGatt gatt) {
+        Log.d(LOG_TAG, "服务变化，Mac: " + device.getAddress());
+        synchronized (this) {
+            characteristicIndex = null;
+            servicesDiscovered = false;
+            invalidateServiceDescription();
+        }
+
+        GattCache cache = gattCache;
+        if (cache != null) {
+            cache.remove(device.getAddress());
+        }
+    }
+
+    /**
+     * 发现服务后，结构和缓存不同时更新缓存
+     *
+     * @param command  BLECommand
+     * @param services List<BluetoothGattService>
+     */
+    private void updateGattCache(BLECommand command, List<BluetoothGattService> services) {
+        String layout = GattCache.describe(services);
+        if (layout == null || layout.equals(command.getCachedLayout())) {
+            return;
+        }
+
+        command.getCache().put(device.getAddress(), command.getCacheVersion(), layout);
+
+        //JS已经使用了缓存的结构，通知重新获取
+        if (command.getCachedLayout() != null) {
+            Log.d(LOG_TAG, "服务结构和缓存不同，Mac: " + device.getAddress());
+            sendConnectionEvent(device, "BleManagerServicesChanged");
+        }
+    }
+
+    /**
+     * 获取特征索引，还没有时按当前已发现的服务建立
+     *
+     * @param gatt BluetoothGatt
+     * @return CharacteristicIndex
+     */
+    private CharacteristicIndex index(BluetoothGatt gatt) {
+        CharacteristicIndex index = characteristicIndex;
+        if (index == null) {
+            List<BluetoothGattService> services = gatt.getServices();
+            if (services.isEmpty()) {
+                return CharacteristicIndex.EMPTY;
+            }
+            index = CharacteristicIndex.build(services);
+            characteristicIndex = index;
+        }
+        return index;
     }
 
     @Override
@@ -255,6 +486,11 @@ public class Peripheral extends BluetoothGattCallback {
             sendConnectionEvent(device, "BleManagerConnectPeripheral");
 
             synchronized (this) {
+                //先排队请求MTU，之后排队的写数据按协商后的MTU分包
+                if (autoMtu > DEFAULT_MTU && Build.VERSION.SDK_INT >= LOLLIPOP) {
+                    enqueue(BLECommand.requestMTU(autoMtu, null));
+                }
+
                 if (connectCallback != null) {
                     Log.d(LOG_TAG, "Connected to: " + device.getAddress());
                     connectCallback.invoke();
@@ -268,6 +504,7 @@ public class Peripheral extends BluetoothGattCallback {
             Log.d(LOG_TAG, "设备断开");
 
             synchronized (this) {
+                resetConnectionState();
                 if (connected) {
                     connected = false;
 
@@ -281,26 +518,13 @@ public class Peripheral extends BluetoothGattCallback {
 
             sendConnectionEvent(device, "BleManagerDisconnectPeripheral");
             synchronized (this) {
-                List<Callback> callbacks = Arrays.asList(writeCallback, retrieveServicesCallback, readRSSICallback, readCallback, registerNotifyCallback);
-                for (Callback currentCallback : callbacks) {
-                    if (currentCallback != null) {
-                        currentCallback.invoke("Device disconnected");
-                    }
-                }
-            }
+                failCommands("Device disconnected");
 
-            synchronized (this) {
                 if (connectCallback != null) {
                     connectCallback.invoke("Connection error");
                     connectCallback = null;
                 }
             }
-
-            writeCallback = null;
-            readCallback = null;
-            retrieveServicesCallback = null;
-            readRSSICallback = null;
-            registerNotifyCallback = null;
         }
     }
 
@@ -308,8 +532,111 @@ public class Peripheral extends BluetoothGattCallback {
         advertisingRSSI = rssi;
     }
 
+    /**
+     * 更新RSSI，并按滤波器更新平滑值和距离，在扫描处理线程中调用
+     *
+     * @param rssi       int
+     * @param scanRecord byte[] 用于读取发射功率
+     * @param filter     RssiFilter
+     */
+    public void updateRssi(int rssi, byte[] scanRecord, RssiFilter filter) {
+        advertisingRSSI = rssi;
+
+        if (filter == RssiFilter.NONE) {
+            filteredRSSI = null;
+            distance = null;
+            return;
+        }
+
+        filter.update(rssiState, rssi, SystemClock.elapsedRealtime());
+        filteredRSSI = rssiState.value;
+
+        double estimated = filter.estimateDistance
+                ? filter.distance(rssiState.value, AdvertisingParser.readTxPowerLevel(scanRecord))
+                : -1;
+        distance = estimated >= 0 ? estimated : null;
+    }
+
+    /**
+     * 用于判断是否重新发送的RSSI，开启平滑时使用平滑值
+     */
+    private int reportRSSI() {
+        Double filteredRSSI = this.filteredRSSI;
+        return filteredRSSI != null ? (int) Math.round(filteredRSSI) : advertisingRSSI;
+    }
+
     public void updateData(byte[] data) {
         advertisingData = data;
+        advertisingFingerprint = Arrays.hashCode(data);
+        lastSeen = SystemClock.elapsedRealtime();
+    }
+
+    public byte[] getAdvertisingData() {
+        return advertisingData;
+    }
+
+    public int getAdvertisingRSSI() {
+        return advertisingRSSI;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * 平滑后的RSSI，未开启平滑时为 null
+     */
+    public Double getFilteredRSSI() {
+        return filteredRSSI;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    /**
+     * 判断当前广播状态是否需要再次发送给JS
+     * 从未发送过、广播内容变化、RSSI（开启平滑时为平滑值）变化超过 rssiDelta 或距离上次发送超过 reportInterval 毫秒时需要发送
+     *
+     * @param rssiDelta      int RSSI变化阈值，<= 0 则RSSI变化不触发发送
+     * @param reportInterval long 最小重新发送间隔毫秒，<= 0 则不按时间重新发送
+     * @return boolean
+     */
+    public boolean shouldReport(int rssiDelta, long reportInterval) {
+        if (!reported || advertisingFingerprint != reportedFingerprint) {
+            return true;
+        }
+
+        if (rssiDelta > 0 && Math.abs(reportRSSI() - reportedRSSI) >= rssiDelta) {
+            return true;
+        }
+
+        return reportInterval > 0 && SystemClock.elapsedRealtime() - reportedTime >= reportInterval;
+    }
+
+    /**
+     * 记录当前广播状态已发送给JS
+     */
+    public void markReported() {
+        reported = true;
+        reportedFingerprint = advertisingFingerprint;
+        reportedRSSI = reportRSSI();
+        reportedTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 清除发送记录，下一次扫描到时必然发送
+     */
+    public void resetReported() {
+        reported = false;
     }
 
     public int unsignedToBytes(byte b) {
@@ -322,7 +649,27 @@ public class Peripheral extends BluetoothGattCallback {
         super.onCharacteristicChanged(gatt, characteristic);
 
         byte[] dataValue = characteristic.getValue();
-        Log.d(LOG_TAG, "Read: " + BleManager.bytesToHex(dataValue) + " from peripheral: " + device.getAddress());
+
+        NotificationBuffer buffer = notificationBuffers.get(characteristic);
+        if (buffer != null) {
+            buffer.add(dataValue, SystemClock.elapsedRealtimeNanos());
+            return;
+        }
+
+        NotificationBatcher batcher = notificationBatchers.get(characteristic);
+        if (batcher != null) {
+            batcher.add(dataValue, SystemClock.elapsedRealtimeNanos());
+            return;
+        }
+
+        Integer handle = notificationHandles.get(characteristic);
+        if (handle != null) {
+            WritableMap map = Arguments.createMap();
+            map.putInt("handle", handle);
+            map.putArray("value", BleManager.bytesToWritableArray(dataValue));
+            sendEvent("BleManagerDidUpdateValueForHandle", map);
+            return;
+        }
 
         WritableMap map = Arguments.createMap();
         map.putString("peripheral", device.getAddress());
@@ -338,18 +685,16 @@ public class Peripheral extends BluetoothGattCallback {
         Log.d(LOG_TAG, "onCharacteristicRead " + characteristic);
 
         synchronized (this) {
-            if (readCallback != null) {
+            BLECommand command = currentCommand(BLECommand.READ);
+            if (command != null) {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     byte[] dataValue = characteristic.getValue();
-
-                    if (readCallback != null) {
-                        readCallback.invoke(null, BleManager.bytesToWritableArray(dataValue));
-                    }
+                    command.invoke(null, BleManager.bytesToWritableArray(dataValue));
                 } else {
-                    readCallback.invoke("Error reading " + characteristic.getUuid() + " status=" + status, null);
+                    command.invoke("Error reading " + characteristic.getUuid() + " status=" + status, null);
                 }
 
-                readCallback = null;
+                completeCommand(command);
             }
         }
 
@@ -360,28 +705,32 @@ public class Peripheral extends BluetoothGattCallback {
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicWrite(gatt, characteristic, status);
 
+        //无响应写数据时，该回调表示分包已交给协议栈的发送缓冲，可以发送下一个
         synchronized (this) {
-            if (writeCallback != null) {
-                if (writeQueue.size() > 0) { //还有排队的写任务
-                    //获取并移除队列中的第一条
-                    byte[] data = writeQueue.get(0);
-                    writeQueue.remove(0);
-
-                    //继续发送数据
-                    doWrite(characteristic, data);
-                } else { //没有排队
-                    //回调写结果
-                    if (status == BluetoothGatt.GATT_SUCCESS) {
-                        writeCallback.invoke();
-                    } else {
-                        Log.e(LOG_TAG, "Error onCharacteristicWrite:" + status);
-                        writeCallback.invoke("Error writing status: " + status);
-                    }
+            BLECommand command = currentCommand(BLECommand.WRITE);
+            if (command == null) {
+                Log.i(LOG_TAG, "写数据，没有回调");
+                return;
+            }
 
-                    writeCallback = null;
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.e(LOG_TAG, "Error onCharacteristicWrite:" + status);
+                command.invoke("Error writing status: " + status);
+                completeCommand(command);
+            } else if (command.offset < command.getLength()) { //还有未发送的数据
+                //继续发送数据
+                scheduleTimeout(command);
+                if (!writeNextChunk(command)) {
+                    completeCommand(command);
                 }
-            } else {
-                Log.i(LOG_TAG, "写数据，没有回调");
+            } else { //没有排队
+                //回调写结果
+                if (BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE == command.getWriteType()) {
+                    command.invoke(null, throughput(command));
+                } else {
+                    command.invoke();
+                }
+                completeCommand(command);
             }
         }
     }
@@ -391,14 +740,25 @@ public class Peripheral extends BluetoothGattCallback {
         super.onDescriptorWrite(gatt, descriptor, status);
 
         synchronized (this) {
-            if (registerNotifyCallback != null) {
+            BLECommand command = currentCommand(BLECommand.REGISTER_NOTIFY);
+            if (command == null) {
+                command = currentCommand(BLECommand.REMOVE_NOTIFY);
+            }
+
+            if (command != null) {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
-                    registerNotifyCallback.invoke();
+                    //设备确认后才改变发送方式，失败时保持原来的发送方式；暂停和恢复不改变发送方式
+                    if (!command.isPauseResume()) {
+                        setNotificationDelivery(command.characteristic, command.getType() == BLECommand.REGISTER_NOTIFY ? command : null);
+                    }
+                    //服务描述中包含描述符的值
+                    invalidateServiceDescription();
+                    command.invoke();
                 } else {
-                    registerNotifyCallback.invoke("Error writing descriptor stats=" + status, null);
+                    command.invoke("Error writing descriptor stats=" + status, null);
                 }
 
-                registerNotifyCallback = null;
+                completeCommand(command);
             }
         }
     }
@@ -408,215 +768,412 @@ public class Peripheral extends BluetoothGattCallback {
         super.onReadRemoteRssi(gatt, rssi, status);
 
         synchronized (this) {
-            if (readRSSICallback != null) {
+            BLECommand command = currentCommand(BLECommand.READ_RSSI);
+            if (command != null) {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     updateRssi(rssi);
-                    readRSSICallback.invoke(null, rssi);
+                    command.invoke(null, rssi);
                 } else {
-                    readRSSICallback.invoke("Error reading RSSI status=" + status, null);
+                    command.invoke("Error reading RSSI status=" + status, null);
                 }
 
-                readRSSICallback = null;
+                completeCommand(command);
             }
         }
     }
 
-    private void setNotify(UUID serviceUUID, UUID characteristicUUID, Boolean notify, Callback callback) {
-        Log.d(LOG_TAG, "使能notify");
-
+    /**
+     * 命令加入队列，没有执行中的命令时立即执行
+     *
+     * @param command BLECommand
+     */
+    private synchronized void enqueue(BLECommand command) {
         if (!isConnected()) {
-            callback.invoke("Device is not connected", null);
+            command.invoke("Device is not connected", null);
             return;
         }
 
         if (gatt == null) {
-            callback.invoke("BluetoothGatt is null");
+            command.invoke("BluetoothGatt is null", null);
             return;
         }
 
-        BluetoothGattService service = gatt.getService(serviceUUID);
-        BluetoothGattCharacteristic characteristic = findNotifyCharacteristic(service, characteristicUUID);
+        commandQueue.add(command);
+        if (currentCommand == null) {
+            nextCommand();
+        }
+    }
 
-        if (characteristic != null) {
-            if (gatt.setCharacteristicNotification(characteristic, notify)) {
+    /**
+     * 执行队列中的下一个命令，直到有命令需要等待GATT回调
+     */
+    private synchronized void nextCommand() {
+        while (currentCommand == null && !commandQueue.isEmpty()) {
+            BLECommand command = commandQueue.poll();
+
+            currentCommand = command;
+            if (execute(command)) {
+                scheduleTimeout(command);
+            } else if (currentCommand == command) {
+                currentCommand = null;
+            }
+        }
+    }
 
-                BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUIDHelper.uuidFromString(CHARACTERISTIC_NOTIFICATION_CONFIG));
-                if (descriptor != null) {
+    /**
+     * 当前命令已完成，执行下一个
+     *
+     * @param command BLECommand
+     */
+    private synchronized void completeCommand(BLECommand command) {
+        if (currentCommand != command) {
+            return;
+        }
 
-                    // Prefer notify over indicate
-                    if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
-                        Log.d(LOG_TAG, "Characteristic " + characteristicUUID + " set NOTIFY");
-                        descriptor.setValue(notify ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                    } else if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
-                        Log.d(LOG_TAG, "Characteristic " + characteristicUUID + " set INDICATE");
-                        descriptor.setValue(notify ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                    } else {
-                        Log.d(LOG_TAG, "Characteristic " + characteristicUUID + " does not have NOTIFY or INDICATE property set");
-                    }
+        BleTimer.cancel(command.timeout);
+        currentCommand = null;
+        nextCommand();
+    }
 
-                    try {
-                        if (gatt.writeDescriptor(descriptor)) {
-                            Log.d(LOG_TAG, "setNotify complete");
-                            registerNotifyCallback = callback;
-                        } else {
-                            callback.invoke("Failed to set client characteristic notification for " + characteristicUUID);
-                        }
-                    } catch (Exception e) {
-                        Log.d(LOG_TAG, "Error on setNotify", e);
-                        callback.invoke("Failed to set client characteristic notification for " + characteristicUUID + ", error: " + e.getMessage());
+    /**
+     * 获取指定类型的当前命令
+     *
+     * @param type int
+     * @return BLECommand 当前命令不是该类型时为 null
+     */
+    private synchronized BLECommand currentCommand(int type) {
+        BLECommand command = currentCommand;
+        return command != null && command.getType() == type ? command : null;
+    }
+
+    /**
+     * 断开时回调所有未完成的命令
+     *
+     * @param error String
+     */
+    private synchronized void failCommands(String error) {
+        BLECommand command = currentCommand;
+        currentCommand = null;
+        if (command != null) {
+            BleTimer.cancel(command.timeout);
+            command.invoke(error);
+        }
+
+        while ((command = commandQueue.poll()) != null) {
+            command.invoke(error);
+        }
+    }
+
+    /**
+     * 等待GATT回调超时后，放弃当前命令，执行下一个
+     *
+     * @param command BLECommand
+     */
+    private synchronized void scheduleTimeout(final BLECommand command) {
+        BleTimer.cancel(command.timeout);
+        command.timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Peripheral.this) {
+                    if (currentCommand != command) {
+                        return;
                     }
 
-                } else {
-                    callback.invoke("Set notification failed for " + characteristicUUID);
+                    Log.w(LOG_TAG, "GATT命令超时，type: " + command.getType() + "，Mac: " + device.getAddress());
+                    command.invoke("Operation timed out", null);
+                    completeCommand(command);
                 }
-
-            } else {
-                callback.invoke("Failed to register notification for " + characteristicUUID);
             }
+        }, command.getType() == BLECommand.RETRIEVE_SERVICES ? RETRIEVE_SERVICES_TIMEOUT : COMMAND_TIMEOUT);
+    }
 
-        } else {
-            callback.invoke("Characteristic " + characteristicUUID + " not found");
+    /**
+     * 执行命令
+     *
+     * @param command BLECommand
+     * @return boolean 是否需要等待GATT回调，不需要时命令已经回调
+     */
+    private boolean execute(BLECommand command) {
+        BluetoothGatt gatt = this.gatt;
+        if (!connected || gatt == null) {
+            command.invoke("Device is not connected", null);
+            return false;
         }
 
-    }
+        int type = command.getType();
+        if (type == BLECommand.READ) {
+            return executeRead(gatt, command);
+        } else if (type == BLECommand.WRITE) {
+            return executeWrite(gatt, command);
+        } else if (type == BLECommand.REGISTER_NOTIFY) {
+            return executeSetNotify(gatt, command, true);
+        } else if (type == BLECommand.REMOVE_NOTIFY) {
+            return executeSetNotify(gatt, command, false);
+        } else if (type == BLECommand.READ_RSSI) {
+            return executeReadRSSI(gatt, command);
+        } else if (type == BLECommand.REQUEST_MTU) {
+            return executeRequestMTU(gatt, command);
+        } else if (type == BLECommand.RETRIEVE_SERVICES) {
+            return executeRetrieveServices(gatt, command);
+        }
 
-    public void registerNotify(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
-        Log.d(LOG_TAG, "注册notify");
-        this.setNotify(serviceUUID, characteristicUUID, true, callback);
+        command.invoke("Unknown command " + type);
+        return false;
     }
 
-    public void removeNotify(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
-        Log.d(LOG_TAG, "removeNotify");
-        this.setNotify(serviceUUID, characteristicUUID, false, callback);
-    }
+    private boolean executeSetNotify(BluetoothGatt gatt, BLECommand command, boolean notify) {
+        Log.d(LOG_TAG, "使能notify");
 
-    // Some devices reuse UUIDs across characteristics, so we can't use service.getCharacteristic(characteristicUUID)
-    // instead check the UUID and properties for each characteristic in the service until we find the best match
-    // This function prefers Notify over Indicate
-    private BluetoothGattCharacteristic findNotifyCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
-        BluetoothGattCharacteristic characteristic = null;
+        UUID characteristicUUID = command.getCharacteristicUUID();
+        BluetoothGattCharacteristic characteristic = command.characteristic;
+        if (characteristic == null) {
+            characteristic = index(gatt).notifiable(command.getServiceUUID(), characteristicUUID);
+        }
 
-        try {
-            // Check for Notify first
-            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-            for (BluetoothGattCharacteristic c : characteristics) {
-                if ((c.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0 && characteristicUUID.equals(c.getUuid())) {
-                    characteristic = c;
-                    break;
-                }
-            }
+        if (characteristic == null) {
+            command.invoke("Characteristic " + characteristicUUID + " not found");
+            return false;
+        }
 
-            if (characteristic != null) return characteristic;
+        if (!gatt.setCharacteristicNotification(characteristic, notify)) {
+            command.invoke("Failed to register notification for " + characteristicUUID);
+            return false;
+        }
 
-            // If there wasn't Notify Characteristic, check for Indicate
-            for (BluetoothGattCharacteristic c : characteristics) {
-                if ((c.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0 && characteristicUUID.equals(c.getUuid())) {
-                    characteristic = c;
-                    break;
-                }
-            }
+        //写描述符成功后按该特征设置发送方式
+        command.characteristic = characteristic;
 
-            // As a last resort, try and find ANY characteristic with this UUID, even if it doesn't have the correct properties
-            if (characteristic == null) {
-                characteristic = service.getCharacteristic(characteristicUUID);
-            }
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUIDHelper.uuidFromString(CHARACTERISTIC_NOTIFICATION_CONFIG));
+        if (descriptor == null) {
+            command.invoke("Set notification failed for " + characteristicUUID);
+            return false;
+        }
+
+        // Prefer notify over indicate
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
+            Log.d(LOG_TAG, "Characteristic " + characteristicUUID + " set NOTIFY");
+            descriptor.setValue(notify ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        } else if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
+            Log.d(LOG_TAG, "Characteristic " + characteristicUUID + " set INDICATE");
+            descriptor.setValue(notify ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        } else {
+            Log.d(LOG_TAG, "Characteristic " + characteristicUUID + " does not have NOTIFY or INDICATE property set");
+        }
 
-            return characteristic;
+        try {
+            if (gatt.writeDescriptor(descriptor)) {
+                Log.d(LOG_TAG, "setNotify complete");
+                return true;
+            }
+            command.invoke("Failed to set client characteristic notification for " + characteristicUUID);
         } catch (Exception e) {
-            Log.e(LOG_TAG, "Errore su caratteristica " + characteristicUUID, e);
-            return null;
+            Log.d(LOG_TAG, "Error on setNotify", e);
+            command.invoke("Failed to set client characteristic notification for " + characteristicUUID + ", error: " + e.getMessage());
         }
+        return false;
     }
 
-    public void read(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
+    /**
+     * 开启通知
+     *
+     * @param batchInterval int 合并发送的间隔毫秒，<= 0 为每个通知发送一个 BleManagerDidUpdateValueForCharacteristic 事件
+     * @param batchSize      int 单个事件最多包含的通知数，<= 0 为不限制
+     * @param bufferCapacity int 环形缓冲的容量，> 0 时通知只记录在缓冲中，由 drainNotifications 取出
+     * @param bufferOverflow int 缓冲满时的处理方式
+     * @param handle         int 特征句柄，> 0 时通知事件带句柄
+     */
+    public void registerNotify(UUID serviceUUID, UUID characteristicUUID, int batchInterval, int batchSize, int bufferCapacity, int bufferOverflow, int handle, Callback callback) {
+        Log.d(LOG_TAG, "注册notify");
+        enqueue(BLECommand.registerNotify(serviceUUID, characteristicUUID, batchInterval, batchSize, bufferCapacity, bufferOverflow, handle, callback));
+    }
 
-        if (!isConnected()) {
-            callback.invoke("Device is not connected", null);
-            return;
+    /**
+     * 暂停或恢复设备的通知，由环形缓冲调用，按顺序和其它GATT命令一起排队
+     *
+     * @param characteristic BluetoothGattCharacteristic
+     * @param pause          boolean
+     */
+    void pauseNotification(BluetoothGattCharacteristic characteristic, boolean pause) {
+        Log.d(LOG_TAG, (pause ? "暂停" : "恢复") + "notify " + characteristic.getUuid());
+        enqueue(BLECommand.pauseNotify(characteristic, pause));
+    }
+
+    /**
+     * 取出环形缓冲中的通知
+     *
+     * @param serviceUUID        UUID
+     * @param characteristicUUID UUID
+     * @param max                int 最多取出的通知数，<= 0 为全部取出
+     * @return WritableMap 该特征没有缓冲时为 null
+     */
+    public WritableMap drainNotifications(UUID serviceUUID, UUID characteristicUUID, int max) {
+        for (Map.Entry<BluetoothGattCharacteristic, NotificationBuffer> entry : notificationBuffers.entrySet()) {
+            BluetoothGattCharacteristic characteristic = entry.getKey();
+            if (characteristic.getUuid().equals(characteristicUUID) && characteristic.getService().getUuid().equals(serviceUUID)) {
+                return entry.getValue().drain(max);
+            }
         }
+        return null;
+    }
 
-        if (gatt == null) {
-            callback.invoke("BluetoothGatt is null", null);
+    /**
+     * 设置特征的通知发送方式，之前合并中的通知先发送
+     *
+     * @param characteristic BluetoothGattCharacteristic
+     * @param command        BLECommand 开启通知的命令，关闭通知时为 null
+     */
+    private void setNotificationDelivery(BluetoothGattCharacteristic characteristic, @Nullable BLECommand command) {
+        NotificationBatcher previous = notificationBatchers.remove(characteristic);
+        if (previous != null) {
+            previous.flush();
+        }
+        notificationBuffers.remove(characteristic);
+        notificationHandles.remove(characteristic);
+
+        if (command == null) {
             return;
         }
 
-        BluetoothGattService service = gatt.getService(serviceUUID);
-        BluetoothGattCharacteristic characteristic = findReadableCharacteristic(service, characteristicUUID);
+        int handle = command.getHandle();
+        if (command.getBufferCapacity() > 0) {
+            notificationBuffers.put(characteristic, new NotificationBuffer(this, characteristic, handle, command.getBufferCapacity(), command.getBufferOverflow()));
+        } else if (command.getBatchInterval() > 0) {
+            notificationBatchers.put(characteristic, new NotificationBatcher(this, characteristic, handle, command.getBatchInterval(), command.getBatchSize(), timer));
+        } else if (handle > 0) {
+            notificationHandles.put(characteristic, handle);
+        }
+    }
 
-        if (characteristic == null) {
-            callback.invoke("Characteristic " + characteristicUUID + " not found.", null);
-        } else {
-            readCallback = callback;
-            if (!gatt.readCharacteristic(characteristic)) {
-                readCallback = null;
-                callback.invoke("Read failed", null);
-            }
+    /**
+     * 发送并移除所有合并中的通知，断开连接时调用
+     */
+    private void flushNotifications() {
+        for (NotificationBatcher batcher : notificationBatchers.values()) {
+            batcher.flush();
         }
+        notificationBatchers.clear();
     }
 
-    public void readRSSI(Callback callback) {
-        if (!isConnected()) {
-            callback.invoke("Device is not connected", null);
-            return;
+    public void removeNotify(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
+        Log.d(LOG_TAG, "removeNotify");
+        enqueue(new BLECommand(serviceUUID, characteristicUUID, BLECommand.REMOVE_NOTIFY, callback));
+    }
+
+    public void read(UUID serviceUUID, UUID characteristicUUID, Callback callback) {
+        enqueue(new BLECommand(serviceUUID, characteristicUUID, BLECommand.READ, callback));
+    }
+
+    private boolean executeRead(BluetoothGatt gatt, BLECommand command) {
+        BluetoothGattCharacteristic characteristic = index(gatt).readable(command.getServiceUUID(), command.getCharacteristicUUID());
+
+        if (characteristic == null) {
+            command.invoke("Characteristic " + command.getCharacteristicUUID() + " not found.", null);
+            return false;
         }
 
-        if (gatt == null) {
-            callback.invoke("BluetoothGatt is null", null);
-            return;
+        if (!gatt.readCharacteristic(characteristic)) {
+            command.invoke("Read failed", null);
+            return false;
         }
+        return true;
+    }
 
-        readRSSICallback = callback;
+    public void readRSSI(Callback callback) {
+        enqueue(new BLECommand(null, null, BLECommand.READ_RSSI, callback));
+    }
 
+    private boolean executeReadRSSI(BluetoothGatt gatt, BLECommand command) {
         if (!gatt.readRemoteRssi()) {
-            readCallback = null;
-            callback.invoke("Read RSSI failed", null);
+            command.invoke("Read RSSI failed", null);
+            return false;
         }
+        return true;
     }
 
     public void retrieveServices(Callback callback) {
-        if (!isConnected()) {
-            callback.invoke("Device is not connected", null);
+        retrieveServices(callback, null, null);
+    }
+
+    /**
+     * 发现服务
+     * 使用缓存时，命中则立即回调缓存的结构，仍然在队列中发现服务（之后的读写需要发现的服务对象）
+     * 发现的结构和缓存不同时更新缓存，已经回调了缓存时发送 BleManagerServicesChanged 事件，发现失败时事件带错误
+     *
+     * @param callback Callback
+     * @param cache    GattCache 不使用缓存时为 null
+     * @param version  String 缓存版本
+     */
+    public void retrieveServices(Callback callback, @Nullable GattCache cache, @Nullable String version) {
+        String cachedLayout = null;
+
+        //本次连接已发现过服务时直接使用服务描述
+        BluetoothGatt gatt = this.gatt;
+        if (servicesDiscovered && isConnected() && gatt != null) {
+            callback.invoke(null, asWritableMap(gatt));
             return;
         }
 
-        if (gatt == null) {
-            callback.invoke("BluetoothGatt is null", null);
-            return;
+        //未连接时由 enqueue 回调错误
+        if (cache != null && isConnected()) {
+            gattCache = cache;
+            cachedLayout = cache.get(device.getAddress(), version);
+
+            WritableMap map = asWritableMap();
+            if (cachedLayout != null && GattCache.putLayout(map, cachedLayout)) {
+                map.putInt("mtu", mtu);
+                map.putBoolean("cached", true);
+                callback.invoke(null, map);
+                callback = servicesFailedCallback();
+            } else {
+                cachedLayout = null;
+            }
         }
-        this.retrieveServicesCallback = callback;
 
-        gatt.discoverServices();
+        enqueue(BLECommand.retrieveServices(cache, version, cachedLayout, callback));
     }
 
-
-    // Some peripherals re-use UUIDs for multiple characteristics so we need to check the properties
-    // and UUID of all characteristics instead of using service.getCharacteristic(characteristicUUID)
-    private BluetoothGattCharacteristic findReadableCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
-        BluetoothGattCharacteristic characteristic = null;
-
-        if (service != null) {
-            int read = BluetoothGattCharacteristic.PROPERTY_READ;
-
-            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-            for (BluetoothGattCharacteristic c : characteristics) {
-                if ((c.getProperties() & read) != 0 && characteristicUUID.equals(c.getUuid())) {
-                    characteristic = c;
-                    break;
+    /**
+     * 已经回调了缓存的结构后，之后的发现服务失败（包括超时和断开）时发送带错误的 BleManagerServicesChanged 事件
+     *
+     * @return Callback
+     */
+    private Callback servicesFailedCallback() {
+        return new Callback() {
+            @Override
+            public void invoke(Object... args) {
+                if (args.length == 0 || args[0] == null) {
+                    return;
                 }
-            }
 
-            // As a last resort, try and find ANY characteristic with this UUID, even if it doesn't have the correct properties
-            if (characteristic == null) {
-                characteristic = service.getCharacteristic(characteristicUUID);
+                Log.d(LOG_TAG, "使用缓存后发现服务失败，Mac: " + device.getAddress() + "，" + args[0]);
+                WritableMap map = Arguments.createMap();
+                map.putString("peripheral", device.getAddress());
+                map.putString("error", String.valueOf(args[0]));
+                sendEvent("BleManagerServicesChanged", map);
             }
-        }
-
+        };
+    }
 
-        return characteristic;
+    private boolean executeRetrieveServices(BluetoothGatt gatt, BLECommand command) {
+        //重新发现服务后重建索引和服务描述
+        characteristicIndex = null;
+        servicesDiscovered = false;
+        invalidateServiceDescription();
+        if (!gatt.discoverServices()) {
+            command.invoke("Retrieve services failed", null);
+            return false;
+        }
+        return true;
     }
 
 
     public boolean doWrite(BluetoothGattCharacteristic characteristic, byte[] data) {
+        BluetoothGatt gatt = this.gatt;
+        if (gatt == null) {
+            Log.d(LOG_TAG, "Error on doWrite, BluetoothGatt is null");
+            return false;
+        }
+
         characteristic.setValue(data);
 
         if (!gatt.writeCharacteristic(characteristic)) {
@@ -627,131 +1184,149 @@ public class Peripheral extends BluetoothGattCallback {
         return true;
     }
 
-    public void write(UUID serviceUUID, UUID characteristicUUID, byte[] data, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
-        if (!isConnected()) {
-            callback.invoke("Device is not connected", null);
-            return;
-        }
-
-        if (gatt == null) {
-            callback.invoke("BluetoothGatt is null");
-        } else {
-            BluetoothGattService service = gatt.getService(serviceUUID);
-            BluetoothGattCharacteristic characteristic = findWritableCharacteristic(service, characteristicUUID, writeType);
+    /**
+     * 写数据
+     *
+     * @param data        byte[] 前 length 个字节有效
+     * @param length      int
+     * @param pool        BufferPool data 所属的池，写完后归还，不是池中的数组时为 null
+     * @param maxByteSize Integer 每个分包的最大字节数，未指定或不大于0时按 MTU - 3 分包
+     */
+    public void write(UUID serviceUUID, UUID characteristicUUID, byte[] data, int length, BufferPool pool, Integer maxByteSize, Integer queueSleepTime, Callback callback, int writeType) {
+        enqueue(BLECommand.write(serviceUUID, characteristicUUID, data, length, pool, maxByteSize != null ? maxByteSize : 0, queueSleepTime != null ? queueSleepTime : 0, writeType, callback));
+    }
 
-            if (characteristic == null) {
-                callback.invoke("Characteristic " + characteristicUUID + " not found.");
-            } else {
-                characteristic.setWriteType(writeType);
+    private boolean executeWrite(BluetoothGatt gatt, BLECommand command) {
+        int writeType = command.getWriteType();
 
-                if (writeQueue.size() > 0) {
-                    callback.invoke("You have already an queued message");
-                    return;
-                }
+        BluetoothGattCharacteristic characteristic = index(gatt).writable(command.getServiceUUID(), command.getCharacteristicUUID(), writeType);
 
-                synchronized (this) {
-                    if (writeCallback != null) {
-                        callback.invoke("You're already writing");
-                        writeCallback = null;
-                        return;
-                    }
-                }
+        if (characteristic == null) {
+            command.invoke("Characteristic " + command.getCharacteristicUUID() + " not found.");
+            return false;
+        }
 
-                if (writeQueue.size() == 0 && writeCallback == null) {
-                    if (BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT == writeType) {
-                        writeCallback = callback;
-                    }
+        characteristic.setWriteType(writeType);
+        command.characteristic = characteristic;
+        command.chunkSize = command.getMaxByteSize() > 0 ? command.getMaxByteSize() : mtu - ATT_WRITE_HEADER;
+        command.offset = 0;
+        command.startTime = System.nanoTime();
+        command.progressTime = command.startTime;
 
-                    if (data.length > maxByteSize) {
-                        int dataLength = data.length;
-                        int count = 0;
-                        byte[] firstMessage = null;
-                        List<byte[]> splittedMessage = new ArrayList<>();
-
-                        while (count < dataLength && (dataLength - count > maxByteSize)) {
-                            if (count == 0) {
-                                firstMessage = Arrays.copyOfRange(data, count, count + maxByteSize);
-                            } else {
-                                byte[] splitMessage = Arrays.copyOfRange(data, count, count + maxByteSize);
-                                splittedMessage.add(splitMessage);
-                            }
-                            count += maxByteSize;
-                        }
-                        if (count < dataLength) {
-                            // Other bytes in queue
-                            byte[] splitMessage = Arrays.copyOfRange(data, count, data.length);
-                            splittedMessage.add(splitMessage);
-                        }
+        return writeNextChunk(command);
+    }
 
-                        if (BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT == writeType) {
-                            writeQueue.addAll(splittedMessage);
-                            if (!doWrite(characteristic, firstMessage)) {
-                                writeQueue.clear();
-                                writeCallback = null;
-                                callback.invoke("Write failed");
-                            }
+    /**
+     * 无响应写数据的吞吐量
+     */
+    private static WritableMap throughput(BLECommand command) {
+        long duration = Math.max(1, (System.nanoTime() - command.startTime) / 1000000);
 
-                        } else {
-                            try {
-                                boolean writeError = false;
-                                if (!doWrite(characteristic, firstMessage)) {
-                                    writeError = true;
-                                    callback.invoke("Write failed");
-                                }
-                                if (!writeError) {
-                                    Thread.sleep(queueSleepTime);
-                                    for (byte[] message : splittedMessage) {
-                                        if (!doWrite(characteristic, message)) {
-                                            writeError = true;
-                                            callback.invoke("Write failed");
-                                            break;
-                                        }
-                                        Thread.sleep(queueSleepTime);
-                                    }
-                                    if (!writeError)
-                                        callback.invoke();
-
-                                }
-                            } catch (InterruptedException e) {
-                                callback.invoke("Error during writing");
-                            }
-                        }
-                    } else {
-                        if (doWrite(characteristic, data)) {
-                            Log.d(LOG_TAG, "Write completed");
+        WritableMap map = Arguments.createMap();
+        map.putInt("bytes", command.offset);
+        map.putDouble("duration", duration);
+        map.putDouble("bytesPerSecond", Math.round(command.offset * 1000.0 / duration));
+        return map;
+    }
 
-                            if (BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE == writeType) {
-                                callback.invoke();
-                            }
-                        } else {
-                            callback.invoke("Write failed");
-                        }
-                    }
-                }
+    /**
+     * 取出 offset 处的下一个分包
+     * 整包复用 chunkBuffer，只有最后一个不足整包的分包需要分配，writeCharacteristic 返回后协议栈已复制数据
+     */
+    private byte[] nextChunk(BLECommand command) {
+        int size = Math.min(command.chunkSize, command.getLength() - command.offset);
+
+        byte[] chunk;
+        if (size == command.chunkSize) {
+            if (chunkBuffer == null || chunkBuffer.length != size) {
+                chunkBuffer = new byte[size];
             }
+            chunk = chunkBuffer;
+        } else {
+            chunk = new byte[size];
         }
 
+        System.arraycopy(command.getData(), command.offset, chunk, 0, size);
+        return chunk;
     }
 
-    public void requestMTU(int mtu, Callback callback) {
-        if (!isConnected()) {
-            callback.invoke("Device is not connected", null);
+    /**
+     * 分包写数据时按间隔发送进度，最后一个分包发送后一定发送
+     */
+    private void sendWriteProgress(BLECommand command) {
+        if (command.getLength() <= command.chunkSize) {
             return;
         }
 
-        if (gatt == null) {
-            callback.invoke("BluetoothGatt is null", null);
+        long now = System.nanoTime();
+        boolean finished = command.offset >= command.getLength();
+        if (!finished && now - command.progressTime < WRITE_PROGRESS_INTERVAL) {
             return;
         }
+        command.progressTime = now;
 
-        if (Build.VERSION.SDK_INT >= LOLLIPOP) {
-            requestMTUCallback = callback;
-            gatt.requestMtu(mtu);
-        } else {
+        WritableMap map = Arguments.createMap();
+        map.putString("peripheral", device.getAddress());
+        map.putString("service", UUIDHelper.uuidToString(command.getServiceUUID()));
+        map.putString("characteristic", UUIDHelper.uuidToString(command.getCharacteristicUUID()));
+        map.putInt("bytesWritten", command.offset);
+        map.putInt("total", command.getLength());
+        sendEvent("BleManagerWriteProgress", map);
+    }
+
+    /**
+     * 发送下一个分包，下一个分包在 onCharacteristicWrite 中发送
+     * 无响应写数据不再按固定时间间隔发送，协议栈接收一个分包就发送下一个，发送缓冲满时回调自然延后
+     * writeCharacteristic 返回失败（协议栈繁忙）时，间隔 queueSleepTime 毫秒重试，不阻塞任何线程
+     *
+     * @param command BLECommand
+     * @return boolean 命令是否还未完成
+     */
+    private boolean writeNextChunk(final BLECommand command) {
+        byte[] data = nextChunk(command);
+
+        if (!doWrite(command.characteristic, data)) {
+            if (++command.busyRetries > MAX_BUSY_RETRIES) {
+                command.invoke("Write failed");
+                return false;
+            }
+
+            int delay = command.getQueueSleepTime() > 0 ? command.getQueueSleepTime() : DEFAULT_BUSY_RETRY_DELAY;
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Peripheral.this) {
+                        if (currentCommand == command && !writeNextChunk(command)) {
+                            completeCommand(command);
+                        }
+                    }
+                }
+            }, delay);
+            return true;
+        }
+
+        //发送成功后才移动位置
+        command.offset += data.length;
+        command.busyRetries = 0;
+        sendWriteProgress(command);
+        return true;
+    }
+
+    public void requestMTU(int mtu, Callback callback) {
+        if (Build.VERSION.SDK_INT < LOLLIPOP) {
             callback.invoke("The requestMTU require at least 21 API level", null);
             return;
         }
 
+        enqueue(BLECommand.requestMTU(mtu, callback));
+    }
+
+    private boolean executeRequestMTU(BluetoothGatt gatt, BLECommand command) {
+        if (Build.VERSION.SDK_INT < LOLLIPOP || !gatt.requestMtu(command.getMtu())) {
+            command.invoke("Request MTU failed", null);
+            return false;
+        }
+        return true;
     }
 
     @Override
@@ -759,56 +1334,21 @@ public class Peripheral extends BluetoothGattCallback {
         super.onMtuChanged(gatt, mtu, status);
 
         synchronized (this) {
-            if (requestMTUCallback != null) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    requestMTUCallback.invoke(null, mtu);
-                } else {
-                    requestMTUCallback.invoke("Error requesting MTU status=" + status, null);
-                }
-
-                requestMTUCallback = null;
-            }
-        }
-    }
-
-
-    // Some peripherals re-use UUIDs for multiple characteristics so we need to check the properties
-    // and UUID of all characteristics instead of using service.getCharacteristic(characteristicUUID)
-    private BluetoothGattCharacteristic findWritableCharacteristic(BluetoothGattService service, UUID characteristicUUID, int writeType) {
-        try {
-            BluetoothGattCharacteristic characteristic = null;
-
-            // get write property
-            int writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE;
-            if (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
-                writeProperty = BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE;
+            //对端发起的协商也会回调，都记录下来
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                this.mtu = mtu;
             }
 
-            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-            for (BluetoothGattCharacteristic c : characteristics) {
-                if ((c.getProperties() & writeProperty) != 0 && characteristicUUID.equals(c.getUuid())) {
-                    characteristic = c;
-                    break;
+            BLECommand command = currentCommand(BLECommand.REQUEST_MTU);
+            if (command != null) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    command.invoke(null, mtu);
+                } else {
+                    command.invoke("Error requesting MTU status=" + status, null);
                 }
-            }
 
-            // As a last resort, try and find ANY characteristic with this UUID, even if it doesn't have the correct properties
-            if (characteristic == null) {
-                characteristic = service.getCharacteristic(characteristicUUID);
+                completeCommand(command);
             }
-
-            return characteristic;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Error on findWritableCharacteristic", e);
-            return null;
         }
     }
-
-    private String generateHashKey(BluetoothGattCharacteristic characteristic) {
-        return generateHashKey(characteristic.getService().getUuid(), characteristic);
-    }
-
-    private String generateHashKey(UUID serviceUUID, BluetoothGattCharacteristic characteristic) {
-        return String.valueOf(serviceUUID) + "|" + characteristic.getUuid() + "|" + characteristic.getInstanceId();
-    }
 }
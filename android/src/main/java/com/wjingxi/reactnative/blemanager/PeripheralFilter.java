@@ -0,0 +1,248 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.wjingxi.reactnative.blemanager.AdvertisingParser.AD_LOCAL_NAME_COMPLETE;
+import static com.wjingxi.reactnative.blemanager.AdvertisingParser.AD_LOCAL_NAME_SHORT;
+import static com.wjingxi.reactnative.blemanager.AdvertisingParser.AD_MANUFACTURER_DATA;
+import static com.wjingxi.reactnative.blemanager.AdvertisingParser.AD_SERVICE_DATA_128;
+import static com.wjingxi.reactnative.blemanager.AdvertisingParser.AD_SERVICE_DATA_16;
+import static com.wjingxi.reactnative.blemanager.AdvertisingParser.AD_SERVICE_DATA_32;
+import static com.wjingxi.reactnative.blemanager.AdvertisingParser.AD_SERVICE_UUIDS_128_COMPLETE;
+import static com.wjingxi.reactnative.blemanager.AdvertisingParser.AD_SERVICE_UUIDS_16_PARTIAL;
+
+/**
+ * 扫描结果过滤
+ * 在更新设备列表和构建事件之前，直接在原始广播数据上判断是否需要该设备
+ * 所有设置了的条件都满足才通过
+ */
+class PeripheralFilter {
+
+    //不过滤
+    static final PeripheralFilter NONE = new PeripheralFilter();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //名称前缀
+    String namePrefix;
+    //名称正则
+    Pattern namePattern;
+    //厂商ID，< 0 为不过滤
+    int manufacturerId = -1;
+    byte[] manufacturerData;
+    byte[] manufacturerDataMask;
+    //服务数据
+    UUID serviceDataUUID;
+    byte[] serviceData;
+    byte[] serviceDataMask;
+    //最小RSSI
+    Integer minRssi;
+    //服务UUID，只在扫描器本身不能过滤时使用
+    List<UUID> serviceUUIDs;
+
+    /**
+     * 按扫描配置生成过滤器
+     * filter: {namePrefix, nameRegex, manufacturerId, manufacturerData, manufacturerDataMask,
+     * serviceDataUUID, serviceData, serviceDataMask, minRssi}
+     *
+     * @param options      ReadableMap
+     * @param serviceUUIDs ReadableArray 需要软件过滤的服务UUID，扫描器本身能过滤则传 null
+     * @return PeripheralFilter
+     */
+    static PeripheralFilter fromOptions(ReadableMap options, ReadableArray serviceUUIDs) {
+        boolean hasFilter = options != null && options.hasKey("filter");
+        boolean hasServiceUUIDs = serviceUUIDs != null && serviceUUIDs.size() > 0;
+
+        if (!hasFilter && !hasServiceUUIDs) {
+            return NONE;
+        }
+
+        PeripheralFilter peripheralFilter = new PeripheralFilter();
+
+        if (hasServiceUUIDs) {
+            peripheralFilter.serviceUUIDs = new ArrayList<>();
+            for (int i = 0; i < serviceUUIDs.size(); i++) {
+                peripheralFilter.serviceUUIDs.add(UUIDHelper.uuidFromString(serviceUUIDs.getString(i)));
+            }
+        }
+
+        if (hasFilter) {
+            ReadableMap filter = options.getMap("filter");
+
+            if (filter.hasKey("namePrefix")) {
+                peripheralFilter.namePrefix = filter.getString("namePrefix");
+            }
+            if (filter.hasKey("nameRegex")) {
+                peripheralFilter.namePattern = Pattern.compile(filter.getString("nameRegex"));
+            }
+            if (filter.hasKey("manufacturerId")) {
+                peripheralFilter.manufacturerId = filter.getInt("manufacturerId");
+                peripheralFilter.manufacturerData = readBytes(filter, "manufacturerData");
+                peripheralFilter.manufacturerDataMask = readBytes(filter, "manufacturerDataMask");
+            }
+            if (filter.hasKey("serviceDataUUID")) {
+                peripheralFilter.serviceDataUUID = UUIDHelper.uuidFromString(filter.getString("serviceDataUUID"));
+                peripheralFilter.serviceData = readBytes(filter, "serviceData");
+                peripheralFilter.serviceDataMask = readBytes(filter, "serviceDataMask");
+            }
+            if (filter.hasKey("minRssi")) {
+                peripheralFilter.minRssi = filter.getInt("minRssi");
+            }
+        }
+
+        return peripheralFilter;
+    }
+
+    /**
+     * 检查扫描配置中的过滤条件，在开始扫描前调用，有误时不开始扫描
+     *
+     * @param options ReadableMap
+     * @return String 错误信息，没有错误时为 null
+     */
+    static String validate(ReadableMap options) {
+        if (options == null || !options.hasKey("filter")) {
+            return null;
+        }
+
+        ReadableMap filter = options.getMap("filter");
+        if (filter.hasKey("nameRegex")) {
+            try {
+                Pattern.compile(filter.getString("nameRegex"));
+            } catch (PatternSyntaxException e) {
+                return "Invalid nameRegex: " + e.getDescription();
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readBytes(ReadableMap map, String key) {
+        if (!map.hasKey(key)) {
+            return null;
+        }
+
+        ReadableArray array = map.getArray(key);
+        byte[] bytes = new byte[array.size()];
+        for (int i = 0; i < array.size(); i++) {
+            bytes[i] = (byte) array.getInt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * 判断扫描结果是否通过过滤
+     *
+     * @param device     BluetoothDevice
+     * @param rssi       int
+     * @param scanRecord byte[]
+     * @return boolean
+     */
+    boolean matches(BluetoothDevice device, int rssi, byte[] scanRecord) {
+        if (this == NONE) {
+            return true;
+        }
+
+        //最便宜的条件先判断
+        if (minRssi != null && rssi < minRssi) {
+            return false;
+        }
+
+        boolean checkName = namePrefix != null || namePattern != null;
+        boolean checkManufacturer = manufacturerId >= 0;
+        boolean checkServiceData = serviceDataUUID != null;
+        boolean checkServiceUUIDs = serviceUUIDs != null;
+
+        if (!checkName && !checkManufacturer && !checkServiceData && !checkServiceUUIDs) {
+            return true;
+        }
+
+        String name = null;
+        boolean manufacturerMatched = false;
+        boolean serviceDataMatched = false;
+        boolean serviceUUIDMatched = false;
+
+        //遍历一次广播数据
+        if (scanRecord != null) {
+            int length;
+            for (int offset = 0; (length = AdvertisingParser.structureLength(scanRecord, offset)) > 0; offset += length + 1) {
+                int type = scanRecord[offset + 1] & 0xFF;
+                int dataOffset = offset + 2;
+                int dataLength = length - 1;
+
+                if (checkName && (type == AD_LOCAL_NAME_COMPLETE || (type == AD_LOCAL_NAME_SHORT && name == null))) {
+                    name = new String(scanRecord, dataOffset, dataLength, UTF_8);
+                } else if (checkManufacturer && !manufacturerMatched && type == AD_MANUFACTURER_DATA && dataLength >= 2) {
+                    manufacturerMatched = AdvertisingParser.readCompanyId(scanRecord, dataOffset) == manufacturerId
+                            && matchesMasked(scanRecord, dataOffset + 2, dataLength - 2, manufacturerData, manufacturerDataMask);
+                } else if (checkServiceData && !serviceDataMatched && (type == AD_SERVICE_DATA_16 || type == AD_SERVICE_DATA_32 || type == AD_SERVICE_DATA_128)) {
+                    int uuidLength = AdvertisingParser.uuidLength(type);
+                    if (dataLength >= uuidLength) {
+                        serviceDataMatched = serviceDataUUID.equals(AdvertisingParser.readUUID(scanRecord, dataOffset, uuidLength))
+                                && matchesMasked(scanRecord, dataOffset + uuidLength, dataLength - uuidLength, serviceData, serviceDataMask);
+                    }
+                } else if (checkServiceUUIDs && !serviceUUIDMatched && type >= AD_SERVICE_UUIDS_16_PARTIAL && type <= AD_SERVICE_UUIDS_128_COMPLETE) {
+                    int uuidLength = AdvertisingParser.uuidLength(type);
+                    for (int i = dataOffset; i + uuidLength <= dataOffset + dataLength; i += uuidLength) {
+                        if (serviceUUIDs.contains(AdvertisingParser.readUUID(scanRecord, i, uuidLength))) {
+                            serviceUUIDMatched = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        if ((checkManufacturer && !manufacturerMatched)
+                || (checkServiceData && !serviceDataMatched)
+                || (checkServiceUUIDs && !serviceUUIDMatched)) {
+            return false;
+        }
+
+        if (checkName) {
+            //广播数据中没有名称时，才使用系统缓存的名称
+            if (name == null) {
+                name = device.getName();
+            }
+            if (name == null) {
+                return false;
+            }
+            if (namePrefix != null && !name.startsWith(namePrefix)) {
+                return false;
+            }
+            if (namePattern != null && !namePattern.matcher(name).find()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 带掩码比较数据开头，data 为 null 时只要求存在
+     */
+    private static boolean matchesMasked(byte[] bytes, int offset, int length, byte[] data, byte[] mask) {
+        if (data == null) {
+            return true;
+        }
+        if (length < data.length) {
+            return false;
+        }
+
+        for (int i = 0; i < data.length; i++) {
+            int m = mask != null && i < mask.length ? mask[i] : 0xFF;
+            if ((bytes[offset + i] & m) != (data[i] & m)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 扫描到的设备列表
+ * 线程安全，扫描线程的更新和JS调用的读取互不阻塞
+ * 超过最大数量时淘汰最久未扫描到的设备，超过存活时间未再扫描到的设备会过期
+ * 已连接的设备不会被淘汰或过期，淘汰、过期和开始扫描时清除的设备通过 BleManagerPeripheralLost 事件通知JS
+ */
+class PeripheralRegistry {
+
+    private static final String LOG_TAG = "PeripheralRegistry";
+    static final String EVENT_LOST = "BleManagerPeripheralLost";
+
+    private final BleManager bleManager;
+
+    //Mac => Peripheral
+    private final ConcurrentHashMap<String, Peripheral> peripherals = new ConcurrentHashMap<>();
+
+    //同一时间只有一个线程执行淘汰
+    private final Object evictLock = new Object();
+
+    //最大设备数，<= 0 为不限制
+    private volatile int maxSize;
+    //未连接设备的存活时间毫秒，<= 0 为不过期
+    private volatile long ttl;
+
+    //按最近扫描到的时间排序，最久的在前
+    private static final Comparator<Peripheral> LAST_SEEN_COMPARATOR = new Comparator<Peripheral>() {
+        @Override
+        public int compare(Peripheral lhs, Peripheral rhs) {
+            long l = lhs.getLastSeen();
+            long r = rhs.getLastSeen();
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+    };
+
+    PeripheralRegistry(BleManager bleManager) {
+        this.bleManager = bleManager;
+    }
+
+    /**
+     * 设置设备列表的限制
+     *
+     * @param maxSize int 最大设备数
+     * @param ttl     long 未连接设备的存活时间毫秒
+     */
+    void configure(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    long getTtl() {
+        return ttl;
+    }
+
+    Peripheral get(String address) {
+        return peripherals.get(address);
+    }
+
+    boolean containsKey(String address) {
+        return peripherals.containsKey(address);
+    }
+
+    /**
+     * 仅当是同一个设备对象时移除
+     *
+     * @param address    String
+     * @param peripheral Peripheral
+     * @return boolean 是否已移除
+     */
+    boolean remove(String address, Peripheral peripheral) {
+        if (peripherals.remove(address, peripheral)) {
+            removed(peripheral);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 不存在时添加设备
+     *
+     * @param address    String
+     * @param peripheral Peripheral
+     * @return Peripheral 已存在的设备，不存在则为 null
+     */
+    Peripheral putIfAbsent(String address, Peripheral peripheral) {
+        Peripheral existing = peripherals.putIfAbsent(address, peripheral);
+        if (existing == null) {
+            evictIfNeeded(peripheral);
+        }
+        return existing;
+    }
+
+    /**
+     * 超过最大数量时淘汰最久未扫描到的未连接设备
+     * 一次淘汰到最大数量的90%，避免每次添加都要排序
+     *
+     * @param added Peripheral 刚添加的设备，不淘汰
+     */
+    private void evictIfNeeded(Peripheral added) {
+        int max = maxSize;
+        if (max <= 0 || peripherals.size() <= max) {
+            return;
+        }
+
+        List<Peripheral> evicted = new ArrayList<>();
+
+        synchronized (evictLock) {
+            if (peripherals.size() <= max) {
+                return;
+            }
+
+            List<Peripheral> candidates = new ArrayList<>();
+            for (Peripheral peripheral : peripherals.values()) {
+                if (peripheral != added && !peripheral.isConnected()) {
+                    candidates.add(peripheral);
+                }
+            }
+            Collections.sort(candidates, LAST_SEEN_COMPARATOR);
+
+            int target = max - max / 10;
+            for (Peripheral candidate : candidates) {
+                if (peripherals.size() <= target) {
+                    break;
+                }
+                if (peripherals.remove(candidate.getDevice().getAddress(), candidate)) {
+                    removed(candidate);
+                    evicted.add(candidate);
+                }
+            }
+        }
+
+        sendLostEvents(evicted, "evicted");
+    }
+
+    /**
+     * 移除所有过期的未连接设备
+     */
+    void removeExpired() {
+        long ttl = this.ttl;
+        if (ttl <= 0) {
+            return;
+        }
+
+        List<Peripheral> expired = new ArrayList<>();
+        long now = SystemClock.elapsedRealtime();
+        for (Peripheral peripheral : peripherals.values()) {
+            if (!peripheral.isConnected() && now - peripheral.getLastSeen() > ttl
+                    && peripherals.remove(peripheral.getDevice().getAddress(), peripheral)) {
+                removed(peripheral);
+                expired.add(peripheral);
+            }
+        }
+
+        sendLostEvents(expired, "expired");
+    }
+
+    /**
+     * 移除所有未连接的设备
+     */
+    void removeDisconnected() {
+        List<Peripheral> pruned = new ArrayList<>();
+        for (Peripheral peripheral : peripherals.values()) {
+            //只是清除扫描结果，设备再次扫描到后句柄继续可用，不移除句柄
+            if (!peripheral.isConnected() && peripherals.remove(peripheral.getDevice().getAddress(), peripheral)) {
+                pruned.add(peripheral);
+            }
+        }
+
+        sendLostEvents(pruned, "pruned");
+    }
+
+    /**
+     * 获取所有设备的副本
+     *
+     * @return List<Peripheral>
+     */
+    List<Peripheral> values() {
+        return new ArrayList<>(peripherals.values());
+    }
+
+    /**
+     * 设备已从列表中移除，该设备的特征句柄随之失效
+     */
+    private void removed(Peripheral peripheral) {
+        bleManager.handles.remove(peripheral.getDevice().getAddress());
+    }
+
+    private void sendLostEvents(List<Peripheral> lost, String reason) {
+        for (Peripheral peripheral : lost) {
+            Log.d(LOG_TAG, "设备丢失(" + reason + ")，Mac: " + peripheral.getDevice().getAddress());
+
+            WritableMap map = Arguments.createMap();
+            map.putString("peripheral", peripheral.getDevice().getAddress());
+            map.putString("reason", reason);
+            bleManager.sendEvent(EVENT_LOST, map);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.wjingxi.reactnative.blemanager;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * RSSI平滑和距离估算
+ * 每个设备保存自己的滤波状态，每次扫描到设备时在扫描处理线程中更新
+ * 距离按对数路径损耗模型估算，1米处的RSSI优先使用配置的 measuredPower，否则由广播的发射功率推算
+ */
+class RssiFilter {
+
+    static final int TYPE_NONE = 0;
+    static final int TYPE_EMA = 1;
+    static final int TYPE_KALMAN = 2;
+
+    //不平滑
+    static final RssiFilter NONE = new RssiFilter(TYPE_NONE);
+
+    //广播的发射功率是0米处的功率，1米处约再衰减41dBm
+    private static final int TX_POWER_LOSS_AT_ONE_METER = 41;
+    //超过该时间未扫描到的设备，重新开始滤波
+    private static final long RESET_GAP = 10000;
+
+    final int type;
+    //EMA系数，越大越跟随最新值
+    double alpha = 0.25;
+    //卡尔曼滤波的过程噪声和测量噪声
+    double processNoise = 1;
+    double measurementNoise = 16;
+    //是否估算距离
+    boolean estimateDistance;
+    //路径损耗指数，空旷环境约为2，室内2~4
+    double pathLossExponent = 2;
+    //1米处的RSSI，未设置时由广播的发射功率推算
+    Integer measuredPower;
+
+    RssiFilter(int type) {
+        this.type = type;
+    }
+
+    /**
+     * 按扫描配置生成滤波器
+     * rssiFilter: {type: 'ema' | 'kalman', alpha, processNoise, measurementNoise, distance, pathLossExponent, measuredPower}
+     *
+     * @param options ReadableMap
+     * @return RssiFilter
+     */
+    static RssiFilter fromOptions(ReadableMap options) {
+        if (options == null || !options.hasKey("rssiFilter")) {
+            return NONE;
+        }
+
+        ReadableMap map = options.getMap("rssiFilter");
+        String type = map.hasKey("type") ? map.getString("type") : "ema";
+
+        RssiFilter filter;
+        if ("kalman".equals(type)) {
+            filter = new RssiFilter(TYPE_KALMAN);
+        } else if ("ema".equals(type)) {
+            filter = new RssiFilter(TYPE_EMA);
+        } else {
+            return NONE;
+        }
+
+        if (map.hasKey("alpha")) {
+            filter.alpha = Math.min(1, Math.max(0.01, map.getDouble("alpha")));
+        }
+        if (map.hasKey("processNoise")) {
+            filter.processNoise = map.getDouble("processNoise");
+        }
+        if (map.hasKey("measurementNoise")) {
+            filter.measurementNoise = map.getDouble("measurementNoise");
+        }
+        if (map.hasKey("distance")) {
+            filter.estimateDistance = map.getBoolean("distance");
+        }
+        if (map.hasKey("pathLossExponent")) {
+            filter.pathLossExponent = map.getDouble("pathLossExponent");
+        }
+        if (map.hasKey("measuredPower")) {
+            filter.measuredPower = map.getInt("measuredPower");
+        }
+
+        return filter;
+    }
+
+    /**
+     * 加入一个RSSI采样，更新滤波状态
+     *
+     * @param state State
+     * @param rssi  int
+     * @param now   long 采样时间
+     */
+    void update(State state, int rssi, long now) {
+        if (state.filter != this || now - state.time > RESET_GAP) {
+            state.filter = this;
+            state.value = rssi;
+            state.variance = measurementNoise;
+        } else if (type == TYPE_KALMAN) {
+            //预测
+            double variance = state.variance + processNoise;
+            //更新
+            double gain = variance / (variance + measurementNoise);
+            state.value += gain * (rssi - state.value);
+            state.variance = (1 - gain) * variance;
+        } else {
+            state.value += alpha * (rssi - state.value);
+        }
+        state.time = now;
+    }
+
+    /**
+     * 估算距离
+     *
+     * @param rssi         double 平滑后的RSSI
+     * @param txPowerLevel int 广播的发射功率，没有时为 AdvertisingParser.NO_TX_POWER_LEVEL
+     * @return double 米，无法估算时为 -1
+     */
+    double distance(double rssi, int txPowerLevel) {
+        int powerAtOneMeter;
+        if (measuredPower != null) {
+            powerAtOneMeter = measuredPower;
+        } else if (txPowerLevel != AdvertisingParser.NO_TX_POWER_LEVEL) {
+            powerAtOneMeter = txPowerLevel - TX_POWER_LOSS_AT_ONE_METER;
+        } else {
+            return -1;
+        }
+
+        return distanceAt(rssi, powerAtOneMeter);
+    }
+
+    /**
+     * 按Beacon帧中的功率校准值估算距离
+     *
+     * @param rssi          double 平滑后的RSSI
+     * @param measuredPower int Beacon帧中1米处的RSSI，没有时为 BeaconParser.Beacon.NO_MEASURED_POWER
+     * @return double 米，无法估算时为 -1
+     */
+    double beaconDistance(double rssi, int measuredPower) {
+        if (this.measuredPower != null) {
+            return distanceAt(rssi, this.measuredPower);
+        }
+        if (measuredPower == BeaconParser.Beacon.NO_MEASURED_POWER) {
+            return -1;
+        }
+        return distanceAt(rssi, measuredPower);
+    }
+
+    private double distanceAt(double rssi, int powerAtOneMeter) {
+        return Math.pow(10, (powerAtOneMeter - rssi) / (10 * pathLossExponent));
+    }
+
+    /**
+     * 单个设备的滤波状态
+     */
+    static final class State {
+        //生成该状态的滤波器，配置变化时重新开始
+        private RssiFilter filter;
+        private double variance;
+        private long time;
+        double value;
+    }
+}
@@ -5,31 +5,731 @@ package com.wjingxi.reactnative.blemanager;
  */
 
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
 
 public abstract class ScanManager {
 
+    static final String EVENT_SCAN_STATE = "BleManagerScanState";
+
+    //扫描状态
+    //idle: 未扫描，scanning: 扫描中，paused: 间歇扫描的暂停阶段，throttled: 等待系统允许再次开始扫描
+    static final String STATE_IDLE = "idle";
+    static final String STATE_SCANNING = "scanning";
+    static final String STATE_PAUSED = "paused";
+    static final String STATE_THROTTLED = "throttled";
+
+    //Android 7.0 起，30秒内最多开始5次扫描，超过后系统不报错但不再返回扫描结果
+    private static final int SCAN_START_LIMIT = 5;
+    private static final long SCAN_START_WINDOW = 30000;
+    //停止扫描后，扫描器继续运行的时间，期间再次开始扫描不占用开始次数
+    private static final long SCAN_STOP_GRACE = 1000;
+    //不发送重复广播时的默认值，广播内容不变的设备RSSI明显变化或每秒仍然发送一次，和之前持续更新RSSI的行为接近
+    private static final int DEFAULT_DUPLICATE_RSSI_DELTA = 5;
+    private static final int DEFAULT_DUPLICATE_REPORT_INTERVAL = 1000;
+
     protected BluetoothAdapter bluetoothAdapter;
     protected Context context;
     protected ReactContext reactContext;
     protected BleManager bleManager;
 
-    //扫描的Session Id
-    protected AtomicInteger scanSessionId = new AtomicInteger();
+    //扫描结果处理线程，设备列表更新和事件构建都在该线程进行，不占用UI线程
+    private HandlerThread scanThread;
+    protected Handler scanHandler;
+
+    //扫描结果合并发送
+    protected DiscoveryBatcher discoveryBatcher;
+
+    //扫描统计
+    protected final ScanStats scanStats = new ScanStats();
+
+    //扫描超时和过期清理的定时任务，只在扫描处理线程中访问
+    private BleTimer.Timeout scanTimeout;
+    private BleTimer.Timeout expireTimeout;
+
+    //扫描中定时清理过期的设备
+    private final Runnable expireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            bleManager.peripherals.removeExpired();
+            scheduleExpire();
+        }
+    };
+
+    //广播数据的发送格式
+    protected AdvertisingParser advertisingParser = AdvertisingParser.DEFAULT;
+
+    //扫描结果过滤
+    protected PeripheralFilter peripheralFilter = PeripheralFilter.NONE;
+
+    //RSSI平滑
+    protected RssiFilter rssiFilter = RssiFilter.NONE;
+
+    //Beacon识别
+    protected BeaconParser beaconParser = BeaconParser.NONE;
+
+    //是否发送重复的广播，为false时只发送内容变化的广播
+    protected boolean allowDuplicates = true;
+    //RSSI变化超过该值时重新发送
+    protected int duplicateRssiDelta = DEFAULT_DUPLICATE_RSSI_DELTA;
+    //距离上次发送超过该毫秒数时重新发送
+    protected int duplicateReportInterval = DEFAULT_DUPLICATE_REPORT_INTERVAL;
+
+    //以下扫描调度状态只在扫描处理线程中访问
+    private String scanState = STATE_IDLE;
+    //JS是否要求扫描
+    private boolean scanRequested;
+    //扫描器是否正在运行
+    private boolean scannerRunning;
+    //间歇扫描：扫描 dutyCycleScan 毫秒，暂停 dutyCyclePause 毫秒，<= 0 为持续扫描
+    private int dutyCycleScan;
+    private int dutyCyclePause;
+    //最近开始扫描的时间，用于避免超过系统的开始次数限制
+    private final ArrayDeque<Long> scanStartTimes = new ArrayDeque<>();
+
+    //扫描失败后的恢复
+    private ScanRecovery scanRecovery;
+
+    private final Runnable startScannerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (scanRequested) {
+                startScannerThrottled();
+            }
+        }
+    };
+
+    private final Runnable pauseScannerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (scanRequested && scannerRunning) {
+                stopScanner();
+                scannerRunning = false;
+                setScanState(STATE_PAUSED);
+                scanHandler.postDelayed(startScannerRunnable, dutyCyclePause);
+            }
+        }
+    };
+
+    private final Runnable stopScannerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!scanRequested && scannerRunning) {
+                stopScanner();
+                scannerRunning = false;
+            }
+        }
+    };
 
     public ScanManager(ReactApplicationContext reactContext, BleManager bleManager) {
         context = reactContext;
         this.reactContext = reactContext;
         this.bleManager = bleManager;
+
+        scanThread = new HandlerThread("BleManagerScan");
+        scanThread.start();
+        scanHandler = new Handler(scanThread.getLooper());
+
+        this.discoveryBatcher = new DiscoveryBatcher(bleManager, scanStats, scanThread.getLooper());
+        this.scanRecovery = new ScanRecovery(this, bleManager, bleManager.timer, scanHandler);
+    }
+
+    /**
+     * 释放扫描处理线程，扫描器不再使用时调用
+     */
+    public void release() {
+        scanHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                requestStop();
+                stopScannerRunnable.run();
+            }
+        });
+        scanThread.quitSafely();
+    }
+
+    /**
+     * 开始扫描
+     *
+     * @param serviceUUIDs    ReadableArray
+     * @param scanSeconds     int 扫描时间秒，<= 0 为不限时
+     * @param allowDuplicates boolean
+     * @param options         ReadableMap
+     * @param callback        Callback 可以为 null
+     */
+    public void scan(final ReadableArray serviceUUIDs, final int scanSeconds, final boolean allowDuplicates, final ReadableMap options, final Callback callback) {
+        scanHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                configureBatching(options);
+                configureAdvertising(options);
+                rssiFilter = RssiFilter.fromOptions(options);
+                beaconParser = BeaconParser.fromOptions(options);
+                configureDuplicates(allowDuplicates, options);
+                configureDutyCycle(options);
+                boolean settingsChanged = prepareScan(serviceUUIDs, options);
+                scheduleExpire();
+
+                requestStart(settingsChanged);
+                scheduleTimeout(scanSeconds);
+
+                //完成处理回调
+                if (callback != null) {
+                    callback.invoke();
+                }
+            }
+        });
+    }
+
+    /**
+     * 停止扫描
+     *
+     * @param callback Callback
+     */
+    public void stopScan(final Callback callback) {
+        scanHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                requestStop();
+                callback.invoke();
+            }
+        });
+    }
+
+    /**
+     * 按扫描时间定时停止扫描，之前扫描的定时不再生效
+     *
+     * @param scanSeconds int
+     */
+    private void scheduleTimeout(int scanSeconds) {
+        BleTimer.cancel(scanTimeout);
+        scanTimeout = null;
+
+        if (scanSeconds <= 0) {
+            return;
+        }
+
+        scanTimeout = bleManager.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                scanTimeout = null;
+                requestStop();
+
+                //发送事件
+                WritableMap map = Arguments.createMap();
+                bleManager.sendEvent("BleManagerStopScan", map);
+            }
+        }, scanSeconds * 1000L, scanHandler);
+    }
+
+    /**
+     * 按扫描配置设置间歇扫描
+     * dutyCycleScan: 每次扫描的毫秒数
+     * dutyCyclePause: 每次暂停的毫秒数
+     *
+     * @param options ReadableMap
+     */
+    private void configureDutyCycle(ReadableMap options) {
+        dutyCycleScan = 0;
+        dutyCyclePause = 0;
+
+        if (options != null) {
+            if (options.hasKey("dutyCycleScan")) {
+                dutyCycleScan = options.getInt("dutyCycleScan");
+            }
+            if (options.hasKey("dutyCyclePause")) {
+                dutyCyclePause = options.getInt("dutyCyclePause");
+            }
+        }
+
+        if (dutyCycleScan > 0 && dutyCyclePause > 0 && (dutyCycleScan + dutyCyclePause) * SCAN_START_LIMIT < SCAN_START_WINDOW) {
+            Log.w(bleManager.LOG_TAG, "间歇扫描周期过短，将受开始扫描次数限制而延长暂停时间");
+        }
+    }
+
+    /**
+     * JS要求开始扫描
+     * 扫描器已在运行且配置没有变化时（如刚刚停止又开始），直接沿用，不重新开始
+     *
+     * @param settingsChanged boolean 扫描器配置是否变化
+     */
+    private void requestStart(boolean settingsChanged) {
+        scanRequested = true;
+        scanHandler.removeCallbacks(stopScannerRunnable);
+        scanHandler.removeCallbacks(pauseScannerRunnable);
+        scanHandler.removeCallbacks(startScannerRunnable);
+
+        if (scannerRunning && !settingsChanged) {
+            setScanState(STATE_SCANNING);
+            scheduleDutyCyclePause();
+            return;
+        }
+
+        if (scannerRunning) {
+            stopScanner();
+            scannerRunning = false;
+        }
+        startScannerThrottled();
+    }
+
+    /**
+     * JS要求停止扫描
+     * 扫描器延迟 SCAN_STOP_GRACE 毫秒再停止，期间的扫描结果丢弃
+     */
+    private void requestStop() {
+        scanRequested = false;
+        scanHandler.removeCallbacks(startScannerRunnable);
+        scanHandler.removeCallbacks(pauseScannerRunnable);
+        scanRecovery.cancel();
+        BleTimer.cancel(scanTimeout);
+        scanTimeout = null;
+
+        cancelExpire();
+        discoveryBatcher.flush();
+
+        if (scannerRunning) {
+            scanHandler.removeCallbacks(stopScannerRunnable);
+            scanHandler.postDelayed(stopScannerRunnable, SCAN_STOP_GRACE);
+        }
+        setScanState(STATE_IDLE);
+    }
+
+    /**
+     * 在开始次数限制内开始扫描，超过限制则等待
+     */
+    private void startScannerThrottled() {
+        long now = SystemClock.elapsedRealtime();
+        while (!scanStartTimes.isEmpty() && now - scanStartTimes.peekFirst() >= SCAN_START_WINDOW) {
+            scanStartTimes.pollFirst();
+        }
+
+        if (scanStartTimes.size() >= SCAN_START_LIMIT) {
+            long wait = scanStartTimes.peekFirst() + SCAN_START_WINDOW - now;
+            Log.w(bleManager.LOG_TAG, "开始扫描过于频繁，" + wait + "ms 后开始");
+            setScanState(STATE_THROTTLED);
+            scanHandler.postDelayed(startScannerRunnable, wait);
+            return;
+        }
+
+        scanStartTimes.addLast(now);
+        if (startScanner()) {
+            scannerRunning = true;
+            setScanState(STATE_SCANNING);
+            scheduleDutyCyclePause();
+        } else if (getBluetoothAdapter().getState() != BluetoothAdapter.STATE_ON) {
+            //蓝牙未开启（如正在重启蓝牙），保留扫描要求，等待蓝牙开启后再开始
+            Log.w(bleManager.LOG_TAG, "蓝牙未开启，开启后开始扫描");
+            setScanState(STATE_IDLE);
+        } else {
+            Log.e(bleManager.LOG_TAG, "开始扫描失败");
+            scanRequested = false;
+            setScanState(STATE_IDLE);
+        }
+    }
+
+    private void scheduleDutyCyclePause() {
+        if (dutyCycleScan > 0 && dutyCyclePause > 0) {
+            scanHandler.postDelayed(pauseScannerRunnable, dutyCycleScan);
+        }
+    }
+
+    /**
+     * JS是否要求扫描，在扫描处理线程中调用
+     * 停止扫描后扫描器可能还在运行，这期间的扫描结果需要丢弃
+     *
+     * @return boolean
+     */
+    protected boolean isScanRequested() {
+        return scanRequested;
+    }
+
+    /**
+     * 扫描器出错停止时由子类调用，开始恢复扫描
+     *
+     * @param errorCode int
+     */
+    protected void onScannerFailed(final int errorCode) {
+        scanHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                scannerRunning = false;
+                scanHandler.removeCallbacks(pauseScannerRunnable);
+
+                if (scanRequested) {
+                    scanRecovery.onScanFailed(errorCode);
+                }
+            }
+        });
+    }
+
+    /**
+     * 重新注册扫描器，由 ScanRecovery 在扫描处理线程中调用
+     */
+    void restartScanner() {
+        if (!scanRequested) {
+            return;
+        }
+
+        if (scannerRunning) {
+            stopScanner();
+            scannerRunning = false;
+        }
+        scanHandler.removeCallbacks(startScannerRunnable);
+        scanHandler.removeCallbacks(pauseScannerRunnable);
+        startScannerThrottled();
+    }
+
+    /**
+     * 蓝牙状态改变，由 BleManager 的蓝牙状态广播调用
+     * 蓝牙关闭后扫描器随之停止，蓝牙重新开启后如果JS仍要求扫描则重新开始
+     *
+     * @param state int BluetoothAdapter.STATE_*
+     */
+    public void onAdapterStateChanged(final int state) {
+        scanHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+                    scannerRunning = false;
+                    scanHandler.removeCallbacks(pauseScannerRunnable);
+                    scanHandler.removeCallbacks(startScannerRunnable);
+                    if (scanRequested) {
+                        setScanState(STATE_IDLE);
+                    }
+                } else if (state == BluetoothAdapter.STATE_ON && scanRequested && !scannerRunning) {
+                    startScannerThrottled();
+                }
+
+                scanRecovery.onAdapterStateChanged(state);
+            }
+        });
+    }
+
+    private void setScanState(String state) {
+        if (state.equals(scanState)) {
+            return;
+        }
+
+        Log.d(bleManager.LOG_TAG, "扫描状态: " + scanState + " => " + state);
+        scanState = state;
+
+        WritableMap map = Arguments.createMap();
+        map.putString("state", state);
+        bleManager.sendEvent(EVENT_SCAN_STATE, map);
+    }
+
+    /**
+     * 扫描开始时调用，按设备存活时间定时清理过期的设备
+     */
+    protected void scheduleExpire() {
+        BleTimer.cancel(expireTimeout);
+        expireTimeout = null;
+
+        long ttl = bleManager.peripherals.getTtl();
+        if (ttl > 0) {
+            //最多每秒检查一次
+            expireTimeout = bleManager.timer.schedule(expireRunnable, Math.max(1000, ttl / 2), scanHandler);
+        }
+    }
+
+    /**
+     * 扫描停止时调用，停止清理过期的设备
+     */
+    protected void cancelExpire() {
+        BleTimer.cancel(expireTimeout);
+        expireTimeout = null;
+    }
+
+    /**
+     * 按扫描配置设置扫描结果的合并发送
+     * batchInterval: 合并发送间隔毫秒，不设置或 <= 0 则每个广播单独发送 BleManagerDiscoverPeripheral
+     * batchSize: 单个事件最多包含的设备数，达到后立即发送
+     *
+     * @param options ReadableMap
+     */
+    protected void configureBatching(ReadableMap options) {
+        int batchInterval = 0;
+        int batchSize = 0;
+
+        if (options != null) {
+            if (options.hasKey("batchInterval")) {
+                batchInterval = options.getInt("batchInterval");
+            }
+            if (options.hasKey("batchSize")) {
+                batchSize = options.getInt("batchSize");
+            }
+        }
+
+        //切换配置前，先把上一次扫描积累的结果发送出去
+        discoveryBatcher.flush();
+        discoveryBatcher.configure(batchInterval, batchSize);
+    }
+
+    /**
+     * 按扫描配置设置广播数据的发送格式，见 AdvertisingParser.fromOptions
+     *
+     * @param options ReadableMap
+     */
+    protected void configureAdvertising(ReadableMap options) {
+        advertisingParser = AdvertisingParser.fromOptions(options);
+        discoveryBatcher.setAdvertisingParser(advertisingParser);
+    }
+
+    /**
+     * 按扫描配置设置扫描结果过滤，见 PeripheralFilter.fromOptions
+     *
+     * @param options      ReadableMap
+     * @param serviceUUIDs ReadableArray 需要软件过滤的服务UUID，扫描器本身能过滤则传 null
+     */
+    protected void configureFilter(ReadableMap options, ReadableArray serviceUUIDs) {
+        peripheralFilter = PeripheralFilter.fromOptions(options, serviceUUIDs);
+    }
+
+    /**
+     * 按扫描配置设置重复广播的过滤
+     * duplicateRssiDelta: allowDuplicates 为 false 时，RSSI变化超过该值则重新发送，0 为不按RSSI重新发送
+     * duplicateReportInterval: allowDuplicates 为 false 时，距离上次发送超过该毫秒数则重新发送，0 为不按时间重新发送
+     * 未设置时使用默认值，广播内容不变的设备仍然会定期更新RSSI
+     *
+     * @param allowDuplicates boolean
+     * @param options         ReadableMap
+     */
+    protected void configureDuplicates(boolean allowDuplicates, ReadableMap options) {
+        this.allowDuplicates = allowDuplicates;
+        this.duplicateRssiDelta = DEFAULT_DUPLICATE_RSSI_DELTA;
+        this.duplicateReportInterval = DEFAULT_DUPLICATE_REPORT_INTERVAL;
+
+        if (options != null) {
+            if (options.hasKey("duplicateRssiDelta")) {
+                duplicateRssiDelta = options.getInt("duplicateRssiDelta");
+            }
+            if (options.hasKey("duplicateReportInterval")) {
+                duplicateReportInterval = options.getInt("duplicateReportInterval");
+            }
+        }
+
+        //新的扫描，已记录的设备需要重新发送一次
+        for (Peripheral peripheral : bleManager.peripherals.values()) {
+            peripheral.resetReported();
+        }
+    }
+
+    /**
+     * 判断设备当前的广播是否需要发送，需要则记录为已发送
+     *
+     * @param peripheral Peripheral
+     * @return boolean
+     */
+    protected boolean acceptReport(Peripheral peripheral) {
+        if (!allowDuplicates && !peripheral.shouldReport(duplicateRssiDelta, duplicateReportInterval)) {
+            return false;
+        }
+
+        peripheral.markReported();
+        return true;
+    }
+
+    /**
+     * 扫描统计快照
+     *
+     * @return WritableMap
+     */
+    public WritableMap getScanStats() {
+        return scanStats.snapshot(discoveryBatcher.pendingSize());
+    }
+
+    public void resetScanStats() {
+        scanStats.reset();
+    }
+
+    /**
+     * 在扫描器回调线程中调用，把扫描结果交给扫描处理线程
+     *
+     * @param device     BluetoothDevice
+     * @param rssi       int
+     * @param scanRecord byte[]
+     */
+    protected void postDiscovered(final BluetoothDevice device, final int rssi, final byte[] scanRecord) {
+        final long receivedAt = System.nanoTime();
+        scanStats.onReceived(1);
+
+        scanHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                scanStats.onDequeued();
+                onDiscovered(device, rssi, scanRecord, receivedAt);
+            }
+        });
+    }
+
+    /**
+     * 处理扫描到的设备：更新设备列表，并发送事件
+     *
+     * @param device     BluetoothDevice
+     * @param rssi       int
+     * @param scanRecord byte[]
+     * @param receivedAt long 扫描器回调时的 System.nanoTime()
+     */
+    protected void onDiscovered(BluetoothDevice device, int rssi, byte[] scanRecord, long receivedAt) {
+        //已停止扫描时扫描器可能还在运行，结果丢弃
+        if (!scanRequested) {
+            scanStats.onDropped(1);
+            return;
+        }
+
+        //不需要的设备不记录也不发送
+        if (!peripheralFilter.matches(device, rssi, scanRecord)) {
+            scanStats.onFiltered();
+            return;
+        }
+
+        scanRecovery.onScanResult();
+
+        Peripheral peripheral = updatePeripheral(device, rssi, scanRecord, receivedAt);
+
+        //重复的广播不发送
+        if (!acceptReport(peripheral)) {
+            scanStats.onDeduplicated();
+            return;
+        }
+
+        //Beacon单独发送，不序列化原始广播数据
+        if (sendBeacon(peripheral, scanRecord)) {
+            return;
+        }
+
+        //发送事件
+        if (discoveryBatcher.isEnabled()) {
+            discoveryBatcher.add(peripheral);
+        } else {
+            WritableMap map = peripheral.asWritableMap(advertisingParser);
+            bleManager.sendEvent("BleManagerDiscoverPeripheral", map);
+            scanStats.onEmitted(receivedAt);
+        }
+    }
+
+    /**
+     * 处理一批扫描到的设备（硬件批量上报）：一次性更新设备列表，并以一个事件发送
+     *
+     * @param peripherals List<Peripheral> 已经通过 updatePeripheral 更新过的设备
+     */
+    protected void onDiscoveredBatch(List<Peripheral> peripherals) {
+        scanRecovery.onScanResult();
+
+        //重复的广播不发送，Beacon单独发送
+        for (Iterator<Peripheral> iterator = peripherals.iterator(); iterator.hasNext(); ) {
+            Peripheral peripheral = iterator.next();
+            if (!acceptReport(peripheral)) {
+                scanStats.onDeduplicated();
+                iterator.remove();
+            } else if (sendBeacon(peripheral, peripheral.getAdvertisingData())) {
+                iterator.remove();
+            }
+        }
+
+        if (peripherals.isEmpty()) {
+            return;
+        }
+
+        if (discoveryBatcher.isEnabled()) {
+            discoveryBatcher.addAll(peripherals);
+        } else {
+            discoveryBatcher.send(peripherals);
+        }
+    }
+
+    /**
+     * 广播是Beacon帧时发送 BleManagerDiscoverBeacon 事件
+     *
+     * @param peripheral Peripheral
+     * @param scanRecord byte[]
+     * @return boolean 是否为Beacon帧
+     */
+    protected boolean sendBeacon(Peripheral peripheral, byte[] scanRecord) {
+        if (!beaconParser.isEnabled()) {
+            return false;
+        }
+
+        BeaconParser.Beacon beacon = beaconParser.parse(scanRecord);
+        if (beacon == null) {
+            return false;
+        }
+
+        WritableMap map = beacon.toWritableMap();
+        map.putString("id", peripheral.getDevice().getAddress());
+        map.putInt("rssi", peripheral.getAdvertisingRSSI());
+
+        Double filteredRSSI = peripheral.getFilteredRSSI();
+        if (filteredRSSI != null) {
+            map.putDouble("filteredRssi", Math.round(filteredRSSI * 10) / 10.0);
+        }
+        if (rssiFilter.estimateDistance) {
+            double distance = rssiFilter.beaconDistance(filteredRSSI != null ? filteredRSSI : peripheral.getAdvertisingRSSI(), beacon.measuredPower);
+            if (distance >= 0) {
+                map.putDouble("distance", Math.round(distance * 100) / 100.0);
+            }
+        }
+
+        bleManager.sendEvent(BeaconParser.EVENT_NAME, map);
+        scanStats.onBeaconEmitted(peripheral.getReceivedAt());
+        return true;
+    }
+
+    /**
+     * 更新设备列表中的设备，不存在则添加
+     *
+     * @param device     BluetoothDevice
+     * @param rssi       int
+     * @param scanRecord byte[]
+     * @param receivedAt long 扫描器回调时的 System.nanoTime()
+     * @return Peripheral
+     */
+    protected Peripheral updatePeripheral(BluetoothDevice device, int rssi, byte[] scanRecord, long receivedAt) {
+        String address = device.getAddress();
+        Peripheral peripheral;
+
+        //每个广播都会经过这里，只在开启详细日志时输出，避免拼接字符串和跨进程获取设备名
+        if (Log.isLoggable(bleManager.LOG_TAG, Log.VERBOSE)) {
+            Log.v(bleManager.LOG_TAG, "扫描到设备，设备名: " + device.getName() + "，Mac: " + address);
+        }
+        scanStats.onAddress(address);
+
+        peripheral = bleManager.peripherals.get(address);
+        if (peripheral == null) { //该设备未记录，添加记录
+            peripheral = new Peripheral(device, rssi, scanRecord, reactContext, bleManager.timer);
+            peripheral.updateRssi(rssi, scanRecord, rssiFilter);
+            peripheral.setReceivedAt(receivedAt);
+            Peripheral existing = bleManager.peripherals.putIfAbsent(address, peripheral);
+            if (existing == null) {
+                return peripheral;
+            }
+            //其它线程（如connect）同时添加了该设备，更新已添加的设备
+            peripheral = existing;
+        }
+
+        //该设备已记录，更新记录
+        peripheral.updateRssi(rssi, scanRecord, rssiFilter);
+        peripheral.updateData(scanRecord);
+        peripheral.setReceivedAt(receivedAt);
+
+        return peripheral;
     }
 
     protected BluetoothAdapter getBluetoothAdapter() {
@@ -41,7 +741,24 @@ public abstract class ScanManager {
         return bluetoothAdapter;
     }
 
-    public abstract void stopScan(Callback callback);
+    /**
+     * 按扫描配置准备扫描器，在扫描处理线程中调用
+     *
+     * @param serviceUUIDs ReadableArray
+     * @param options      ReadableMap
+     * @return boolean 扫描器配置是否和正在运行的不同，不同则需要重新开始扫描器
+     */
+    protected abstract boolean prepareScan(ReadableArray serviceUUIDs, ReadableMap options);
+
+    /**
+     * 开始扫描器，在扫描处理线程中调用
+     *
+     * @return boolean 是否成功
+     */
+    protected abstract boolean startScanner();
 
-    public abstract void scan(ReadableArray serviceUUIDs, final int scanSeconds, ReadableMap options, Callback callback);
+    /**
+     * 停止扫描器，在扫描处理线程中调用
+     */
+    protected abstract void stopScanner();
 }
@@ -0,0 +1,225 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.bluetooth.BluetoothAdapter;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * 扫描失败后的恢复
+ * 先按指数退避重新注册扫描器，多次失败后再重启蓝牙，重启后仍然失败则放弃
+ * 重启蓝牙由 BleManager 的蓝牙状态广播驱动，不轮询蓝牙状态
+ * 所有方法都在扫描处理线程中调用
+ */
+class ScanRecovery {
+
+    private static final String LOG_TAG = "ScanRecovery";
+    static final String EVENT_NAME = "BleManagerScanRecovery";
+
+    //恢复阶段
+    static final String STAGE_REREGISTERING = "reregistering";
+    static final String STAGE_RESTARTING_ADAPTER = "restarting_adapter";
+    static final String STAGE_RECOVERED = "recovered";
+    static final String STAGE_FAILED = "failed";
+
+    //重新注册扫描器的最大次数，超过后重启蓝牙
+    private static final int MAX_REREGISTER_ATTEMPTS = 3;
+    //一次恢复中重启蓝牙的最大次数，重启后仍然失败则放弃
+    private static final int MAX_ADAPTER_RESTARTS = 1;
+    //退避时间
+    private static final long BASE_BACKOFF = 500;
+    private static final long MAX_BACKOFF = 8000;
+    //重启蓝牙的超时时间
+    private static final long ADAPTER_RESTART_TIMEOUT = 15000;
+    //重新开始扫描后，这段时间内没有再失败则认为已恢复
+    private static final long CONFIRM_DELAY = 2000;
+
+    private final ScanManager scanManager;
+    private final BleManager bleManager;
+    private final BleTimer timer;
+    private final Handler handler;
+
+    private boolean recovering;
+    private String stage;
+    private int attempt;
+    private int adapterRestarts;
+    private int errorCode;
+    private long startTime;
+
+    //等待中的定时任务，同一时间只有一个
+    private BleTimer.Timeout pending;
+
+    private final Runnable reregisterRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(LOG_TAG, "重新注册扫描器，第 " + attempt + " 次");
+            scanManager.restartScanner();
+            schedule(confirmRunnable, CONFIRM_DELAY);
+        }
+    };
+
+    private final Runnable confirmRunnable = new Runnable() {
+        @Override
+        public void run() {
+            recovered();
+        }
+    };
+
+    private final Runnable adapterTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.e(LOG_TAG, "重启蓝牙超时");
+            finish(STAGE_FAILED);
+        }
+    };
+
+    ScanRecovery(ScanManager scanManager, BleManager bleManager, BleTimer timer, Handler handler) {
+        this.scanManager = scanManager;
+        this.bleManager = bleManager;
+        this.timer = timer;
+        this.handler = handler;
+    }
+
+    /**
+     * 安排下一个定时任务，取消之前的
+     */
+    private void schedule(Runnable task, long delay) {
+        BleTimer.cancel(pending);
+        pending = timer.schedule(task, delay, handler);
+    }
+
+    private void cancelPending() {
+        BleTimer.cancel(pending);
+        pending = null;
+    }
+
+    /**
+     * 扫描器报告失败
+     *
+     * @param errorCode int
+     */
+    void onScanFailed(int errorCode) {
+        if (!recovering) {
+            recovering = true;
+            attempt = 0;
+            adapterRestarts = 0;
+            startTime = SystemClock.elapsedRealtime();
+        }
+        this.errorCode = errorCode;
+
+        //正在重启蓝牙，等待蓝牙状态改变
+        if (STAGE_RESTARTING_ADAPTER.equals(stage)) {
+            return;
+        }
+
+        cancelPending();
+
+        if (attempt < MAX_REREGISTER_ATTEMPTS) {
+            attempt++;
+            stage = STAGE_REREGISTERING;
+            report();
+            schedule(reregisterRunnable, Math.min(MAX_BACKOFF, BASE_BACKOFF << (attempt - 1)));
+        } else if (adapterRestarts < MAX_ADAPTER_RESTARTS) {
+            restartAdapter();
+        } else {
+            Log.e(LOG_TAG, "重启蓝牙后扫描仍然失败");
+            finish(STAGE_FAILED);
+        }
+    }
+
+    /**
+     * 重新注册扫描器无效，一旦发生这种错误，除了重启蓝牙再没有其它解决办法
+     */
+    private void restartAdapter() {
+        BluetoothAdapter adapter = scanManager.getBluetoothAdapter();
+        if (adapter == null) {
+            finish(STAGE_FAILED);
+            return;
+        }
+
+        Log.e(LOG_TAG, "将关闭蓝牙重新开启");
+        adapterRestarts++;
+        stage = STAGE_RESTARTING_ADAPTER;
+        report();
+
+        schedule(adapterTimeoutRunnable, ADAPTER_RESTART_TIMEOUT);
+        if (!adapter.disable()) {
+            finish(STAGE_FAILED);
+        }
+    }
+
+    /**
+     * 蓝牙状态改变
+     *
+     * @param state int BluetoothAdapter.STATE_*
+     */
+    void onAdapterStateChanged(int state) {
+        if (!recovering || !STAGE_RESTARTING_ADAPTER.equals(stage)) {
+            return;
+        }
+
+        if (state == BluetoothAdapter.STATE_OFF) {
+            //要等待蓝牙彻底关闭，然后再打开，才能实现重启效果
+            Log.e(LOG_TAG, "蓝牙已经彻底关闭，重新打开");
+            if (!scanManager.getBluetoothAdapter().enable()) {
+                finish(STAGE_FAILED);
+            }
+        } else if (state == BluetoothAdapter.STATE_ON) {
+            //扫描器由 ScanManager 在蓝牙开启后重新开始
+            Log.e(LOG_TAG, "蓝牙已经重新打开");
+            stage = null;
+            //协议栈刚启动时可能再次失败，先重新按退避注册扫描器
+            attempt = 0;
+            schedule(confirmRunnable, CONFIRM_DELAY);
+        }
+    }
+
+    /**
+     * 收到扫描结果，说明扫描器已恢复
+     */
+    void onScanResult() {
+        if (recovering && !STAGE_RESTARTING_ADAPTER.equals(stage)) {
+            recovered();
+        }
+    }
+
+    /**
+     * 停止扫描时取消恢复
+     */
+    void cancel() {
+        if (recovering) {
+            cancelPending();
+            recovering = false;
+            stage = null;
+        }
+    }
+
+    private void recovered() {
+        if (recovering) {
+            Log.d(LOG_TAG, "扫描已恢复，用时 " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+            finish(STAGE_RECOVERED);
+        }
+    }
+
+    private void finish(String finalStage) {
+        cancelPending();
+
+        stage = finalStage;
+        report();
+
+        recovering = false;
+        stage = null;
+    }
+
+    private void report() {
+        WritableMap map = Arguments.createMap();
+        map.putString("stage", stage);
+        map.putInt("attempt", attempt);
+        map.putInt("errorCode", errorCode);
+        map.putDouble("elapsed", SystemClock.elapsedRealtime() - startTime);
+        bleManager.sendEvent(EVENT_NAME, map);
+    }
+}
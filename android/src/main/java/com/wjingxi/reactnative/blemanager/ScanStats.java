@@ -0,0 +1,249 @@
+package com.wjingxi.reactnative.blemanager;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 扫描统计
+ * 记录扫描结果从扫描器回调到发送事件的各个环节，计数只用原子操作，不阻塞扫描线程
+ * 延迟为扫描器回调到 sendEvent 的时间，按固定区间统计分布
+ */
+class ScanStats {
+
+    //延迟分布的区间上限，毫秒，最后一个区间不设上限
+    private static final long[] LATENCY_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    //估算不同设备数的位图大小（位），8KB，数十万个地址内误差在几个百分点以内
+    private static final int ADDRESS_BITS = 1 << 16;
+
+    //扫描器回调的扫描结果数
+    private final AtomicLong received = new AtomicLong();
+    //扫描到的不同设备，按地址的哈希置位，用线性计数估算，内存固定，不随随机地址增长
+    private final AtomicLongArray addressBits = new AtomicLongArray(ADDRESS_BITS / 64);
+    //已停止扫描后收到而丢弃的结果数
+    private final AtomicLong dropped = new AtomicLong();
+    //未通过过滤的结果数
+    private final AtomicLong filtered = new AtomicLong();
+    //重复而未发送的结果数
+    private final AtomicLong deduplicated = new AtomicLong();
+    //发送的设备数（批量事件中的每个设备都计数）和Beacon数
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong beacons = new AtomicLong();
+
+    //等待扫描处理线程处理的结果数
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    //延迟
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BOUNDS.length + 1);
+    private final AtomicLong latencyTotalNanos = new AtomicLong();
+    private final AtomicLong latencyMaxNanos = new AtomicLong();
+
+    private volatile long resetTime = SystemClock.elapsedRealtime();
+
+    /**
+     * 扫描器回调线程中收到扫描结果，结果交给扫描处理线程前调用
+     *
+     * @param count int
+     */
+    void onReceived(int count) {
+        received.addAndGet(count);
+
+        int depth = queueDepth.incrementAndGet();
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+        }
+    }
+
+    /**
+     * 扫描处理线程开始处理结果时调用
+     */
+    void onDequeued() {
+        queueDepth.decrementAndGet();
+    }
+
+    void onAddress(String address) {
+        //地址的 hashCode 分布不均匀，先混合再取位
+        int hash = address.hashCode() * 0x9E3779B1;
+        int bit = (hash ^ (hash >>> 16)) & (ADDRESS_BITS - 1);
+
+        int index = bit >>> 6;
+        long mask = 1L << (bit & 63);
+        long word;
+        while (((word = addressBits.get(index)) & mask) == 0 && !addressBits.compareAndSet(index, word, word | mask)) {
+        }
+    }
+
+    /**
+     * 估算不同设备数，位图全部置位时返回 -1
+     */
+    long uniqueAddresses() {
+        int zeros = 0;
+        for (int i = 0; i < addressBits.length(); i++) {
+            zeros += 64 - Long.bitCount(addressBits.get(i));
+        }
+        if (zeros == 0) {
+            return -1;
+        }
+        return Math.round(-ADDRESS_BITS * Math.log((double) zeros / ADDRESS_BITS));
+    }
+
+    void onDropped(int count) {
+        dropped.addAndGet(count);
+    }
+
+    void onFiltered() {
+        filtered.incrementAndGet();
+    }
+
+    void onDeduplicated() {
+        deduplicated.incrementAndGet();
+    }
+
+    /**
+     * 设备已发送给JS
+     *
+     * @param receivedAt long 扫描器回调时的 System.nanoTime()
+     */
+    void onEmitted(long receivedAt) {
+        emitted.incrementAndGet();
+        recordLatency(receivedAt);
+    }
+
+    /**
+     * Beacon已发送给JS
+     *
+     * @param receivedAt long 扫描器回调时的 System.nanoTime()
+     */
+    void onBeaconEmitted(long receivedAt) {
+        beacons.incrementAndGet();
+        recordLatency(receivedAt);
+    }
+
+    private void recordLatency(long receivedAt) {
+        if (receivedAt == 0) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - receivedAt;
+        long millis = nanos / 1000000;
+
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS.length && millis >= LATENCY_BOUNDS[bucket]) {
+            bucket++;
+        }
+        latencyHistogram.incrementAndGet(bucket);
+        latencyTotalNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = latencyMaxNanos.get()) && !latencyMaxNanos.compareAndSet(max, nanos)) {
+        }
+    }
+
+    /**
+     * 清零所有统计，正在排队的结果数除外
+     */
+    void reset() {
+        received.set(0);
+        for (int i = 0; i < addressBits.length(); i++) {
+            addressBits.set(i, 0);
+        }
+        dropped.set(0);
+        filtered.set(0);
+        deduplicated.set(0);
+        emitted.set(0);
+        beacons.set(0);
+        maxQueueDepth.set(queueDepth.get());
+        for (int i = 0; i < latencyHistogram.length(); i++) {
+            latencyHistogram.set(i, 0);
+        }
+        latencyTotalNanos.set(0);
+        latencyMaxNanos.set(0);
+        resetTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 生成统计快照
+     *
+     * @param pendingBatch int 等待合并发送的设备数
+     * @return WritableMap
+     */
+    WritableMap snapshot(int pendingBatch) {
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - resetTime);
+        long receivedCount = received.get();
+
+        WritableMap map = Arguments.createMap();
+        map.putDouble("elapsed", elapsed);
+        map.putDouble("received", receivedCount);
+        map.putDouble("advertisementsPerSecond", Math.round(receivedCount * 10000.0 / elapsed) / 10.0);
+        long unique = uniqueAddresses();
+        map.putDouble("uniqueAddresses", unique >= 0 ? unique : ADDRESS_BITS * Math.log(ADDRESS_BITS));
+        map.putBoolean("uniqueAddressesSaturated", unique < 0);
+        map.putDouble("dropped", dropped.get());
+        map.putDouble("filtered", filtered.get());
+        map.putDouble("deduplicated", deduplicated.get());
+        map.putDouble("emitted", emitted.get());
+        map.putDouble("beacons", beacons.get());
+        map.putInt("queueDepth", queueDepth.get());
+        map.putInt("maxQueueDepth", maxQueueDepth.get());
+        map.putInt("pendingBatch", pendingBatch);
+
+        //延迟分布
+        long[] counts = new long[latencyHistogram.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencyHistogram.get(i);
+            total += counts[i];
+        }
+
+        WritableMap latency = Arguments.createMap();
+        latency.putDouble("count", total);
+        latency.putDouble("mean", total > 0 ? latencyTotalNanos.get() / total / 1000000.0 : 0);
+        latency.putDouble("max", latencyMaxNanos.get() / 1000000.0);
+        latency.putDouble("p50", percentile(counts, total, 0.5));
+        latency.putDouble("p95", percentile(counts, total, 0.95));
+        latency.putDouble("p99", percentile(counts, total, 0.99));
+
+        WritableArray buckets = Arguments.createArray();
+        for (int i = 0; i < counts.length; i++) {
+            WritableMap bucket = Arguments.createMap();
+            if (i < LATENCY_BOUNDS.length) {
+                bucket.putDouble("le", LATENCY_BOUNDS[i]);
+            } else {
+                bucket.putNull("le");
+            }
+            bucket.putDouble("count", counts[i]);
+            buckets.pushMap(bucket);
+        }
+        latency.putArray("histogram", buckets);
+        map.putMap("latency", latency);
+
+        return map;
+    }
+
+    /**
+     * 按区间估算百分位，返回所在区间的上限毫秒，落在最后一个区间时返回最大值
+     */
+    private double percentile(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(total * percentile);
+        long cumulative = 0;
+        for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target) {
+                return LATENCY_BOUNDS[i];
+            }
+        }
+        return latencyMaxNanos.get() / 1000000.0;
+    }
+}
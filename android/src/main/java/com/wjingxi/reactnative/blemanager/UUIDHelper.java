@@ -9,6 +9,9 @@ public class UUIDHelper {
     //长UUID模板
     public static final String UUID_BASE = "0000XXXX-0000-1000-8000-00805f9b34fb";
 
+    //16 bit UUID 的匹配规则，只编译一次
+    private static final Pattern SHORT_UUID_PATTERN = Pattern.compile("0000(.{4})-0000-1000-8000-00805f9b34fb", Pattern.CASE_INSENSITIVE);
+
     /**
      * 通过 UUID 获取 String
      * @param uuid
@@ -33,8 +36,7 @@ public class UUIDHelper {
      */
     public static String uuidToString(UUID uuid) {
         String longUUID = uuid.toString();
-        Pattern pattern = Pattern.compile("0000(.{4})-0000-1000-8000-00805f9b34fb", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(longUUID);
+        Matcher matcher = SHORT_UUID_PATTERN.matcher(longUUID);
         if (matcher.matches()) {
             // 16 bit UUID
             return matcher.group(1);
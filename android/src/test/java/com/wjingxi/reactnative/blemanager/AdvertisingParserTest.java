@@ -0,0 +1,94 @@
+package com.wjingxi.reactnative.blemanager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdvertisingParserTest {
+
+    //flags，16位服务UUID列表，完整名称 "Test"，之后是补齐的0
+    private static final byte[] RECORD = bytes(
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0xAA, 0xFE,
+            0x05, 0x09, 'T', 'e', 's', 't',
+            0x00, 0x00, 0x00);
+
+    @Test
+    public void walksStructuresUntilZeroLength() {
+        assertEquals(Arrays.asList(0x01, 0x03, 0x09), types(RECORD));
+    }
+
+    @Test
+    public void stopsAtTruncatedStructure() {
+        //第二个结构声明5个字节，只剩3个
+        byte[] record = bytes(0x02, 0x01, 0x06, 0x05, 0xFF, 0x4C, 0x00);
+        assertEquals(Arrays.asList(0x01), types(record));
+    }
+
+    @Test
+    public void stopsAtEndOfRecord() {
+        assertEquals(Arrays.asList(0x01), types(bytes(0x02, 0x01, 0x06)));
+        assertEquals(new ArrayList<Integer>(), types(new byte[0]));
+    }
+
+    @Test
+    public void readsTxPowerLevel() {
+        assertEquals(-12, AdvertisingParser.readTxPowerLevel(bytes(0x02, 0x01, 0x06, 0x02, 0x0A, 0xF4)));
+        assertEquals(AdvertisingParser.NO_TX_POWER_LEVEL, AdvertisingParser.readTxPowerLevel(RECORD));
+        assertEquals(AdvertisingParser.NO_TX_POWER_LEVEL, AdvertisingParser.readTxPowerLevel(null));
+    }
+
+    @Test
+    public void readsShortUUIDsOnTheBaseUUID() {
+        assertEquals(UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb"),
+                AdvertisingParser.readUUID(bytes(0xAA, 0xFE), 0, 2));
+        assertEquals(UUID.fromString("12345678-0000-1000-8000-00805f9b34fb"),
+                AdvertisingParser.readUUID(bytes(0x78, 0x56, 0x34, 0x12), 0, 4));
+    }
+
+    @Test
+    public void readsLittleEndian128BitUUID() {
+        byte[] bytes = bytes(
+                0xFF, 0xEE, 0xDD, 0xCC, 0xBB, 0xAA, 0x99, 0x88,
+                0x77, 0x66, 0x55, 0x44, 0x33, 0x22, 0x11, 0x00);
+        assertEquals(UUID.fromString("00112233-4455-6677-8899-aabbccddeeff"), AdvertisingParser.readUUID(bytes, 0, 16));
+    }
+
+    @Test
+    public void readsCompanyIdLittleEndian() {
+        assertEquals(0x004C, AdvertisingParser.readCompanyId(bytes(0x4C, 0x00), 0));
+        assertEquals(0x0118, AdvertisingParser.readCompanyId(bytes(0x00, 0x18, 0x01), 1));
+    }
+
+    @Test
+    public void uuidLengthByType() {
+        assertEquals(2, AdvertisingParser.uuidLength(AdvertisingParser.AD_SERVICE_UUIDS_16_PARTIAL));
+        assertEquals(2, AdvertisingParser.uuidLength(AdvertisingParser.AD_SERVICE_DATA_16));
+        assertEquals(4, AdvertisingParser.uuidLength(AdvertisingParser.AD_SERVICE_UUIDS_32_COMPLETE));
+        assertEquals(4, AdvertisingParser.uuidLength(AdvertisingParser.AD_SERVICE_DATA_32));
+        assertEquals(16, AdvertisingParser.uuidLength(AdvertisingParser.AD_SERVICE_UUIDS_128_COMPLETE));
+        assertEquals(16, AdvertisingParser.uuidLength(AdvertisingParser.AD_SERVICE_DATA_128));
+    }
+
+    private static List<Integer> types(byte[] record) {
+        List<Integer> types = new ArrayList<>();
+        int length;
+        for (int offset = 0; (length = AdvertisingParser.structureLength(record, offset)) > 0; offset += length + 1) {
+            types.add(record[offset + 1] & 0xFF);
+        }
+        return types;
+    }
+
+    static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,144 @@
+package com.wjingxi.reactnative.blemanager;
+
+import org.junit.Test;
+
+import static com.wjingxi.reactnative.blemanager.AdvertisingParserTest.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BeaconParserTest {
+
+    private static final BeaconParser ALL = new BeaconParser(
+            BeaconParser.TYPE_IBEACON | BeaconParser.TYPE_ALTBEACON | BeaconParser.TYPE_EDDYSTONE);
+
+    private static final String UUID = "e2c56db5-dffb-48d2-b060-d0f5a71096e0";
+    private static final int[] UUID_BYTES = {
+            0xE2, 0xC5, 0x6D, 0xB5, 0xDF, 0xFB, 0x48, 0xD2,
+            0xB0, 0x60, 0xD0, 0xF5, 0xA7, 0x10, 0x96, 0xE0};
+
+    //flags，厂商数据：Apple，0x02 0x15，UUID，major 1，minor 2，1米处功率 -59
+    private static final byte[] IBEACON = record(
+            new int[]{0x02, 0x01, 0x06, 0x1A, 0xFF, 0x4C, 0x00, 0x02, 0x15},
+            UUID_BYTES,
+            new int[]{0x00, 0x01, 0x00, 0x02, 0xC5});
+
+    @Test
+    public void parsesIBeacon() {
+        BeaconParser.Beacon beacon = ALL.parse(IBEACON);
+
+        assertNotNull(beacon);
+        assertEquals("ibeacon", beacon.fields.get("type"));
+        assertEquals(UUID, beacon.fields.get("uuid"));
+        assertEquals(1, beacon.fields.get("major"));
+        assertEquals(2, beacon.fields.get("minor"));
+        assertEquals(-59, beacon.measuredPower);
+        assertEquals(-59, beacon.fields.get("measuredPower"));
+    }
+
+    @Test
+    public void parsesAltBeacon() {
+        //厂商数据：0x0118，0xBE 0xAC，20字节ID，1米处功率 -60，保留字节
+        byte[] record = record(
+                new int[]{0x1B, 0xFF, 0x18, 0x01, 0xBE, 0xAC},
+                UUID_BYTES,
+                new int[]{0x00, 0x03, 0x00, 0x04, 0xC4, 0x7F});
+
+        BeaconParser.Beacon beacon = ALL.parse(record);
+
+        assertNotNull(beacon);
+        assertEquals("altbeacon", beacon.fields.get("type"));
+        assertEquals(0x0118, beacon.fields.get("manufacturerId"));
+        assertEquals(UUID, beacon.fields.get("uuid"));
+        assertEquals(3, beacon.fields.get("major"));
+        assertEquals(4, beacon.fields.get("minor"));
+        assertEquals(0x7F, beacon.fields.get("reserved"));
+        assertEquals(-60, beacon.measuredPower);
+    }
+
+    @Test
+    public void parsesEddystoneUid() {
+        //服务数据：0xFEAA，UID帧，0米处功率 -20，namespace(10)，instance(6)
+        byte[] record = bytes(
+                0x15, 0x16, 0xAA, 0xFE, 0x00, 0xEC,
+                0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09,
+                0xA0, 0xB1, 0xC2, 0xD3, 0xE4, 0xF5);
+
+        BeaconParser.Beacon beacon = ALL.parse(record);
+
+        assertNotNull(beacon);
+        assertEquals("eddystone_uid", beacon.fields.get("type"));
+        assertEquals("00010203040506070809", beacon.fields.get("namespace"));
+        assertEquals("a0b1c2d3e4f5", beacon.fields.get("instance"));
+        //0米处的功率换算为1米处
+        assertEquals(-61, beacon.measuredPower);
+    }
+
+    @Test
+    public void parsesEddystoneUrlWithExpansions() {
+        //URL帧，前缀 https://www.，"example"，".com/"，"a"
+        byte[] record = bytes(
+                0x0F, 0x16, 0xAA, 0xFE, 0x10, 0xEC, 0x01,
+                'e', 'x', 'a', 'm', 'p', 'l', 'e', 0x00, 'a');
+
+        BeaconParser.Beacon beacon = ALL.parse(record);
+
+        assertNotNull(beacon);
+        assertEquals("eddystone_url", beacon.fields.get("type"));
+        assertEquals("https://www.example.com/a", beacon.fields.get("url"));
+    }
+
+    @Test
+    public void rejectsEddystoneUrlWithUnknownScheme() {
+        assertNull(ALL.parse(bytes(0x06, 0x16, 0xAA, 0xFE, 0x10, 0xEC, 0x04)));
+    }
+
+    @Test
+    public void parsesEddystoneTlm() {
+        //TLM帧，版本0，电压3000mV，温度24.5，广播次数256，运行时间100 * 0.1秒
+        byte[] record = bytes(
+                0x11, 0x16, 0xAA, 0xFE, 0x20, 0x00,
+                0x0B, 0xB8, 0x18, 0x80,
+                0x00, 0x00, 0x01, 0x00,
+                0x00, 0x00, 0x00, 0x64);
+
+        BeaconParser.Beacon beacon = ALL.parse(record);
+
+        assertNotNull(beacon);
+        assertEquals("eddystone_tlm", beacon.fields.get("type"));
+        assertEquals(3000, beacon.fields.get("battery"));
+        assertEquals(24.5, beacon.fields.get("temperature"));
+        assertEquals(256.0, beacon.fields.get("advCount"));
+        assertEquals(10.0, beacon.fields.get("uptime"));
+        assertEquals(BeaconParser.Beacon.NO_MEASURED_POWER, beacon.measuredPower);
+        assertFalse(beacon.fields.containsKey("measuredPower"));
+    }
+
+    @Test
+    public void onlyParsesEnabledTypes() {
+        assertNull(new BeaconParser(BeaconParser.TYPE_EDDYSTONE).parse(IBEACON));
+        assertNotNull(new BeaconParser(BeaconParser.TYPE_IBEACON).parse(IBEACON));
+        assertNull(BeaconParser.NONE.parse(IBEACON));
+    }
+
+    @Test
+    public void ignoresOtherManufacturerData() {
+        assertNull(ALL.parse(bytes(0x02, 0x01, 0x06, 0x05, 0xFF, 0x4C, 0x00, 0x10, 0x05)));
+        assertNull(ALL.parse(null));
+    }
+
+    private static byte[] record(int[]... parts) {
+        int length = 0;
+        for (int[] part : parts) {
+            length += part.length;
+        }
+        int[] values = new int[length];
+        int offset = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, values, offset, part.length);
+            offset += part.length;
+        }
+        return bytes(values);
+    }
+}
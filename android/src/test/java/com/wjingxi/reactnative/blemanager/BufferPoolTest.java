@@ -0,0 +1,89 @@
+package com.wjingxi.reactnative.blemanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferPoolTest {
+
+    @Test
+    public void roundsUpToPowerOfTwoBuckets() {
+        BufferPool pool = new BufferPool(4096, 4, 1 << 20);
+
+        //最小的分组为64字节
+        assertEquals(64, pool.acquire(0).length);
+        assertEquals(64, pool.acquire(1).length);
+        assertEquals(64, pool.acquire(64).length);
+        assertEquals(128, pool.acquire(65).length);
+        assertEquals(512, pool.acquire(300).length);
+        assertEquals(4096, pool.acquire(4096).length);
+    }
+
+    @Test
+    public void largerThanMaxSizeIsExact() {
+        BufferPool pool = new BufferPool(4096, 4, 1 << 20);
+        byte[] buffer = pool.acquire(5000);
+
+        assertEquals(5000, buffer.length);
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(5000));
+    }
+
+    @Test
+    public void reusesReleasedBuffer() {
+        BufferPool pool = new BufferPool(4096, 4, 1 << 20);
+        byte[] buffer = pool.acquire(100);
+        pool.release(buffer);
+
+        //同一分组的长度都可以复用
+        assertSame(buffer, pool.acquire(128));
+        assertNotSame(buffer, pool.acquire(100));
+    }
+
+    @Test
+    public void ignoresForeignLengths() {
+        BufferPool pool = new BufferPool(4096, 4, 1 << 20);
+        byte[] buffer = new byte[100];
+        pool.release(buffer);
+
+        assertEquals(128, pool.acquire(100).length);
+        pool.release(null);
+    }
+
+    @Test
+    public void limitsBuffersPerBucket() {
+        BufferPool pool = new BufferPool(4096, 2, 1 << 20);
+        byte[] a = pool.acquire(64);
+        byte[] b = pool.acquire(64);
+        byte[] c = pool.acquire(64);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+
+        //后进先出，第三个没有入池
+        assertSame(b, pool.acquire(64));
+        assertSame(a, pool.acquire(64));
+        assertNotSame(c, pool.acquire(64));
+    }
+
+    @Test
+    public void limitsRetainedBytes() {
+        BufferPool pool = new BufferPool(4096, 4, 4096 + 1024);
+        byte[] large = pool.acquire(4096);
+        byte[] medium = pool.acquire(1024);
+        byte[] small = pool.acquire(64);
+        pool.release(large);
+        pool.release(medium);
+        pool.release(small);
+
+        assertSame(large, pool.acquire(4096));
+        assertSame(medium, pool.acquire(1024));
+        assertNotSame(small, pool.acquire(64));
+
+        //取出后释放的字节不再计入
+        pool.release(small);
+        assertSame(small, pool.acquire(64));
+    }
+}
@@ -0,0 +1,110 @@
+package com.wjingxi.reactnative.blemanager;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CharacteristicHandlesTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+    private static final UUID SERVICE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID OTHER = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void sameArgumentsGiveSameHandle() {
+        CharacteristicHandles handles = new CharacteristicHandles(null);
+        CharacteristicHandles.Handle handle = handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC);
+
+        assertSame(handle, handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC));
+        //Mac 不区分大小写
+        assertSame(handle, handles.resolve("aa:bb:cc:dd:ee:ff", SERVICE, CHARACTERISTIC));
+        assertNotEquals(handle.id, handles.resolve(ADDRESS, SERVICE, OTHER).id);
+
+        assertSame(handle, handles.get(handle.id));
+        assertEquals(ADDRESS, handle.address);
+        assertEquals(SERVICE, handle.serviceUUID);
+        assertEquals(CHARACTERISTIC, handle.characteristicUUID);
+    }
+
+    @Test
+    public void unknownIdsAreInvalid() {
+        CharacteristicHandles handles = new CharacteristicHandles(null);
+
+        assertNull(handles.get(0));
+        assertNull(handles.get(-1));
+        assertNull(handles.get(1));
+        assertNull(handles.get(1 << 20));
+    }
+
+    @Test
+    public void removeInvalidatesOnlyThatPeripheral() {
+        CharacteristicHandles handles = new CharacteristicHandles(null);
+        CharacteristicHandles.Handle a = handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC);
+        CharacteristicHandles.Handle b = handles.resolve(ADDRESS, SERVICE, OTHER);
+        CharacteristicHandles.Handle other = handles.resolve("11:22:33:44:55:66", SERVICE, CHARACTERISTIC);
+
+        handles.remove("aa:bb:cc:dd:ee:ff");
+
+        assertNull(handles.get(a.id));
+        assertNull(handles.get(b.id));
+        assertSame(other, handles.get(other.id));
+        //移除后重新解析得到新的句柄
+        assertNotEquals(a.id, handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC).id);
+    }
+
+    @Test
+    public void reusedSlotGetsNewGeneration() {
+        CharacteristicHandles handles = new CharacteristicHandles(null);
+        CharacteristicHandles.Handle first = handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC);
+        handles.remove(ADDRESS);
+
+        CharacteristicHandles.Handle second = handles.resolve("11:22:33:44:55:66", SERVICE, CHARACTERISTIC);
+
+        //同一个槽位，旧的句柄不指向新的特征
+        assertEquals(first.id & 0xFFFF, second.id & 0xFFFF);
+        assertNotEquals(first.id, second.id);
+        assertNull(handles.get(first.id));
+        assertSame(second, handles.get(second.id));
+    }
+
+    @Test
+    public void generationWrapsAroundAndStaysPositive() {
+        CharacteristicHandles handles = new CharacteristicHandles(null);
+        int first = handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC).id;
+
+        int previous = first;
+        //代数为15位，复用 2^15 次后回到第一个句柄
+        for (int i = 1; i < 1 << 15; i++) {
+            handles.remove(ADDRESS);
+            int id = handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC).id;
+            assertTrue(id > 0);
+            assertEquals(1, id & 0xFFFF);
+            assertNotEquals(previous, id);
+            previous = id;
+        }
+
+        handles.remove(ADDRESS);
+        assertEquals(first, handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC).id);
+    }
+
+    @Test
+    public void limitsHandleCount() {
+        CharacteristicHandles handles = new CharacteristicHandles(null);
+        for (int i = 0; i < 0xFFFF; i++) {
+            assertNotNull(handles.resolve(ADDRESS, SERVICE, new UUID(0, i)));
+        }
+        assertNull(handles.resolve(ADDRESS, SERVICE, new UUID(0, 0xFFFF)));
+
+        //移除后槽位可以复用
+        handles.remove(ADDRESS);
+        assertNotNull(handles.resolve(ADDRESS, SERVICE, CHARACTERISTIC));
+    }
+}
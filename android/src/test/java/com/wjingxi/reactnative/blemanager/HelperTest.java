@@ -0,0 +1,74 @@
+package com.wjingxi.reactnative.blemanager;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.wjingxi.reactnative.blemanager.AdvertisingParserTest.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HelperTest {
+
+    @Test
+    public void decodesStandardAlphabet() {
+        assertArrayEquals("hello world".getBytes(), decode("aGVsbG8gd29ybGQ="));
+        assertArrayEquals(bytes(0xFB, 0xFF, 0xBF), decode("+/+/"));
+    }
+
+    @Test
+    public void decodesUrlSafeAlphabet() {
+        assertArrayEquals(bytes(0xFB, 0xFF, 0xBF), decode("-_-_"));
+    }
+
+    @Test
+    public void decodesWithoutPadding() {
+        assertArrayEquals("hello world".getBytes(), decode("aGVsbG8gd29ybGQ"));
+        assertArrayEquals(bytes(0x01), decode("AQ"));
+    }
+
+    @Test
+    public void ignoresWhitespace() {
+        assertArrayEquals(bytes(0x01, 0x02, 0x03), decode(" AQ\r\n\tID "));
+    }
+
+    @Test
+    public void stopsAtPadding() {
+        assertArrayEquals(bytes(0x01), decode("AQ==AQID"));
+    }
+
+    @Test
+    public void decodesEmpty() {
+        assertArrayEquals(new byte[0], decode(""));
+    }
+
+    @Test
+    public void decodesIntoLargerBuffer() {
+        byte[] out = new byte[64];
+        Arrays.fill(out, (byte) 0x7F);
+
+        assertEquals(3, Helper.decodeBase64("AQID", out));
+        assertArrayEquals(bytes(0x01, 0x02, 0x03, 0x7F), Arrays.copyOf(out, 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCharacter() {
+        Helper.base64DecodedLength("AQ*D");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonAsciiCharacter() {
+        Helper.base64DecodedLength("AQéD");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsImpossibleLength() {
+        Helper.base64DecodedLength("AQIDB");
+    }
+
+    private static byte[] decode(String base64) {
+        byte[] out = new byte[Helper.base64DecodedLength(base64)];
+        assertEquals(out.length, Helper.decodeBase64(base64, out));
+        return out;
+    }
+}
@@ -0,0 +1,116 @@
+package com.wjingxi.reactnative.blemanager;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static com.wjingxi.reactnative.blemanager.AdvertisingParserTest.bytes;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PeripheralFilterTest {
+
+    private static final UUID EDDYSTONE = UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb");
+
+    //flags，完整名称 "Tag1"，16位服务UUID 0xFEAA，厂商数据 0x004C：02 15 AB，服务数据 0xFEAA：10 EC
+    private static final byte[] RECORD = bytes(
+            0x02, 0x01, 0x06,
+            0x05, 0x09, 'T', 'a', 'g', '1',
+            0x03, 0x03, 0xAA, 0xFE,
+            0x06, 0xFF, 0x4C, 0x00, 0x02, 0x15, 0xAB,
+            0x05, 0x16, 0xAA, 0xFE, 0x10, 0xEC);
+
+    @Test
+    public void noneMatchesEverything() {
+        assertTrue(PeripheralFilter.NONE.matches(null, -100, null));
+    }
+
+    @Test
+    public void manufacturerDataMatchesPrefix() {
+        assertTrue(manufacturer(0x004C, bytes(0x02, 0x15), null).matches(null, -50, RECORD));
+        assertTrue(manufacturer(0x004C, null, null).matches(null, -50, RECORD));
+        assertFalse(manufacturer(0x004C, bytes(0x02, 0x16), null).matches(null, -50, RECORD));
+        assertFalse(manufacturer(0x0118, null, null).matches(null, -50, RECORD));
+    }
+
+    @Test
+    public void manufacturerDataMaskIgnoresClearedBits() {
+        //只比较第一个字节和第三个字节的高4位
+        assertTrue(manufacturer(0x004C, bytes(0x02, 0x99, 0xA0), bytes(0xFF, 0x00, 0xF0)).matches(null, -50, RECORD));
+        assertFalse(manufacturer(0x004C, bytes(0x02, 0x99, 0xB0), bytes(0xFF, 0x00, 0xF0)).matches(null, -50, RECORD));
+        //掩码比数据短时，其余字节完整比较
+        assertFalse(manufacturer(0x004C, bytes(0x02, 0x99), bytes(0xFF)).matches(null, -50, RECORD));
+    }
+
+    @Test
+    public void manufacturerDataLongerThanAdvertisedFails() {
+        assertFalse(manufacturer(0x004C, bytes(0x02, 0x15, 0xAB, 0x00), null).matches(null, -50, RECORD));
+    }
+
+    @Test
+    public void serviceDataMatchesWithMask() {
+        PeripheralFilter filter = new PeripheralFilter();
+        filter.serviceDataUUID = EDDYSTONE;
+        filter.serviceData = bytes(0x10, 0x00);
+        filter.serviceDataMask = bytes(0xFF, 0x00);
+        assertTrue(filter.matches(null, -50, RECORD));
+
+        filter.serviceData = bytes(0x20);
+        assertFalse(filter.matches(null, -50, RECORD));
+
+        filter.serviceDataUUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+        filter.serviceData = null;
+        assertFalse(filter.matches(null, -50, RECORD));
+    }
+
+    @Test
+    public void serviceUUIDsMatchAnyListed() {
+        PeripheralFilter filter = new PeripheralFilter();
+        filter.serviceUUIDs = Arrays.asList(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb"), EDDYSTONE);
+        assertTrue(filter.matches(null, -50, RECORD));
+
+        filter.serviceUUIDs = Arrays.asList(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb"));
+        assertFalse(filter.matches(null, -50, RECORD));
+    }
+
+    @Test
+    public void nameFromAdvertisement() {
+        PeripheralFilter filter = new PeripheralFilter();
+        filter.namePrefix = "Tag";
+        assertTrue(filter.matches(null, -50, RECORD));
+
+        filter.namePattern = Pattern.compile("\\d$");
+        assertTrue(filter.matches(null, -50, RECORD));
+
+        filter.namePattern = Pattern.compile("^Beacon");
+        assertFalse(filter.matches(null, -50, RECORD));
+    }
+
+    @Test
+    public void minRssi() {
+        PeripheralFilter filter = new PeripheralFilter();
+        filter.minRssi = -70;
+        assertTrue(filter.matches(null, -70, RECORD));
+        assertFalse(filter.matches(null, -71, RECORD));
+    }
+
+    @Test
+    public void allConditionsMustMatch() {
+        PeripheralFilter filter = manufacturer(0x004C, bytes(0x02, 0x15), null);
+        filter.serviceDataUUID = EDDYSTONE;
+        assertTrue(filter.matches(null, -50, RECORD));
+
+        filter.serviceData = bytes(0x20);
+        assertFalse(filter.matches(null, -50, RECORD));
+    }
+
+    private static PeripheralFilter manufacturer(int id, byte[] data, byte[] mask) {
+        PeripheralFilter filter = new PeripheralFilter();
+        filter.manufacturerId = id;
+        filter.manufacturerData = data;
+        filter.manufacturerDataMask = mask;
+        return filter;
+    }
+}
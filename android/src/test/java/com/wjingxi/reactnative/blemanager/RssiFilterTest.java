@@ -0,0 +1,98 @@
+package com.wjingxi.reactnative.blemanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RssiFilterTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void emaStartsAtFirstSample() {
+        RssiFilter filter = new RssiFilter(RssiFilter.TYPE_EMA);
+        RssiFilter.State state = new RssiFilter.State();
+
+        filter.update(state, -60, 1000);
+        assertEquals(-60, state.value, DELTA);
+
+        //默认 alpha 0.25
+        filter.update(state, -80, 1100);
+        assertEquals(-65, state.value, DELTA);
+    }
+
+    @Test
+    public void kalmanConvergesAndTrustsItselfMore() {
+        RssiFilter filter = new RssiFilter(RssiFilter.TYPE_KALMAN);
+        RssiFilter.State state = new RssiFilter.State();
+
+        filter.update(state, -60, 0);
+        filter.update(state, -80, 100);
+        double first = state.value;
+        //方差 16 + 1，增益 17 / 33
+        assertEquals(-60 - 20 * 17.0 / 33, first, DELTA);
+
+        for (int i = 2; i < 50; i++) {
+            filter.update(state, -80, i * 100);
+        }
+        assertTrue(state.value < first);
+        assertTrue(state.value > -80);
+
+        //增益降低后，单个异常值的影响变小
+        double before = state.value;
+        filter.update(state, -40, 5000);
+        assertTrue(state.value - before < 20 * 17.0 / 33);
+    }
+
+    @Test
+    public void restartsAfterGap() {
+        RssiFilter filter = new RssiFilter(RssiFilter.TYPE_EMA);
+        RssiFilter.State state = new RssiFilter.State();
+
+        filter.update(state, -60, 0);
+        filter.update(state, -90, 20000);
+        assertEquals(-90, state.value, DELTA);
+    }
+
+    @Test
+    public void restartsWhenFilterChanges() {
+        RssiFilter.State state = new RssiFilter.State();
+        new RssiFilter(RssiFilter.TYPE_EMA).update(state, -60, 0);
+        new RssiFilter(RssiFilter.TYPE_EMA).update(state, -90, 100);
+        assertEquals(-90, state.value, DELTA);
+    }
+
+    @Test
+    public void distanceFromPathLoss() {
+        RssiFilter filter = new RssiFilter(RssiFilter.TYPE_EMA);
+        filter.measuredPower = -59;
+
+        assertEquals(1, filter.distance(-59, AdvertisingParser.NO_TX_POWER_LEVEL), DELTA);
+        //路径损耗指数 2 时，每 20dB 距离增加 10 倍
+        assertEquals(10, filter.distance(-79, AdvertisingParser.NO_TX_POWER_LEVEL), DELTA);
+
+        filter.pathLossExponent = 4;
+        assertEquals(10, filter.distance(-99, AdvertisingParser.NO_TX_POWER_LEVEL), DELTA);
+    }
+
+    @Test
+    public void distanceFromTxPowerLevel() {
+        RssiFilter filter = new RssiFilter(RssiFilter.TYPE_EMA);
+
+        assertEquals(-1, filter.distance(-60, AdvertisingParser.NO_TX_POWER_LEVEL), DELTA);
+        //发射功率 -18，1米处 -59
+        assertEquals(1, filter.distance(-59, -18), DELTA);
+    }
+
+    @Test
+    public void beaconDistancePrefersConfiguredPower() {
+        RssiFilter filter = new RssiFilter(RssiFilter.TYPE_EMA);
+
+        assertEquals(1, filter.beaconDistance(-65, -65), DELTA);
+        assertEquals(-1, filter.beaconDistance(-65, BeaconParser.Beacon.NO_MEASURED_POWER), DELTA);
+
+        filter.measuredPower = -45;
+        assertEquals(10, filter.beaconDistance(-65, -65), DELTA);
+    }
+}
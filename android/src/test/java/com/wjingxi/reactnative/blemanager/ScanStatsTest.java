@@ -0,0 +1,41 @@
+package com.wjingxi.reactnative.blemanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScanStatsTest {
+
+    @Test
+    public void emptyIsZero() {
+        assertEquals(0, new ScanStats().uniqueAddresses());
+    }
+
+    @Test
+    public void repeatedAddressCountsOnce() {
+        ScanStats stats = new ScanStats();
+        for (int i = 0; i < 1000; i++) {
+            stats.onAddress("AA:BB:CC:DD:EE:FF");
+        }
+        assertEquals(1, stats.uniqueAddresses());
+    }
+
+    @Test
+    public void estimatesDistinctAddresses() {
+        for (int count : new int[]{100, 10000, 100000}) {
+            ScanStats stats = new ScanStats();
+            for (int i = 0; i < count; i++) {
+                stats.onAddress(address(i));
+                //重复扫描到不影响估算
+                stats.onAddress(address(i));
+            }
+
+            long estimate = stats.uniqueAddresses();
+            assertEquals("count " + count, count, estimate, count * 0.03);
+        }
+    }
+
+    private static String address(int i) {
+        return String.format("C0:%02X:%02X:%02X:%02X:%02X", (i >> 24) & 0xFF, (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF, i % 7);
+    }
+}